@@ -0,0 +1,128 @@
+package org.alex73.osmemory;
+
+import static org.alex73.osmemory.TestStorage.tags;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ChangeBatchTest {
+    static TestStorage storage() throws Exception {
+        TestStorage t = new TestStorage();
+        for (int i = 1; i <= 10; i++) {
+            if (i % 2 == 0) {
+                t.node(i, 52, 20 + i, "n", "" + i);
+            } else {
+                t.node(i, 52, 20 + i);
+            }
+        }
+        t.way(20, new long[] { 1, 2 }, "highway", "primary").way(21, new long[] { 3, 4 });
+        t.relation(30, new long[] { 20 }, new byte[] { IOsmObject.TYPE_WAY }, new String[] { "outer" });
+        t.finish();
+        return t;
+    }
+
+    @Test
+    public void testChangeBatch() throws Exception {
+        TestStorage t1 = storage();
+        TestStorage t2 = storage();
+        MemoryStorage st1 = t1.st, st2 = t2.st;
+        XMLReader rd1 = t1.rd, rd2 = t2.rd;
+        rd2.beginChanges();
+        for (XMLReader rd : Arrays.asList(rd1, rd2)) {
+            // simple to tagged, tagged to simple, deleted, created, changed twice
+            rd.updateNode(XMLReader.UPDATE_MODE.MODIFY, 1, 53, 21, tags("place", "city"), "v");
+            rd.updateNode(XMLReader.UPDATE_MODE.MODIFY, 2, 53, 22, tags(), "v");
+            rd.updateNode(XMLReader.UPDATE_MODE.DELETE, 5, 0, 0, null, null);
+            rd.updateNode(XMLReader.UPDATE_MODE.DELETE, 6, 0, 0, null, null);
+            rd.updateNode(XMLReader.UPDATE_MODE.CREATE, 11, 54, 31, tags(), "v");
+            rd.updateNode(XMLReader.UPDATE_MODE.CREATE, 12, 54, 32, tags("n", "12"), "v");
+            rd.updateNode(XMLReader.UPDATE_MODE.MODIFY, 3, 54, 33, tags(), "v");
+            rd.updateNode(XMLReader.UPDATE_MODE.MODIFY, 3, 54, 34, tags("n", "3"), "v");
+            rd.updateWay(XMLReader.UPDATE_MODE.MODIFY, 20, new long[] { 1, 11, 12 }, tags(), "v");
+            rd.updateWay(XMLReader.UPDATE_MODE.DELETE, 21, null, null, null);
+            rd.updateWay(XMLReader.UPDATE_MODE.CREATE, 19, new long[] { 7, 8 }, tags("a", "b"), "v");
+            rd.updateRelation(XMLReader.UPDATE_MODE.DELETE, 30, null, null, null, null, null);
+            rd.updateRelation(XMLReader.UPDATE_MODE.CREATE, 31, new long[] { 19 },
+                    new byte[] { IOsmObject.TYPE_WAY }, new String[] { "inner" }, tags(), "v");
+        }
+        // storage is not changed before commit
+        assertNotNull(st2.getNodeById(5));
+        rd2.commitChanges();
+
+        assertEquals(st1.simpleNodeCount, st2.simpleNodeCount);
+        assertEquals(st1.nodeCount, st2.nodeCount);
+        for (long id = 1; id <= 12; id++) {
+            IOsmNode n1 = st1.getNodeById(id), n2 = st2.getNodeById(id);
+            assertEquals(n1 == null ? null : n1.getObjectCode(), n2 == null ? null : n2.getObjectCode());
+            if (n1 != null) {
+                assertEquals(n1.getLat(), n2.getLat());
+                assertEquals(n1.getLon(), n2.getLon());
+                assertEquals(n1.extractTags(st1), n2.extractTags(st2));
+            }
+        }
+        assertEquals(st1.wayCount, st2.wayCount);
+        for (long id = 19; id <= 21; id++) {
+            IOsmWay w1 = st1.getWayById(id), w2 = st2.getWayById(id);
+            assertEquals(w1 == null, w2 == null);
+            if (w1 != null) {
+                assertArrayEquals(w1.getNodeIds(), w2.getNodeIds());
+                assertEquals(w1.extractTags(st1), w2.extractTags(st2));
+            }
+        }
+        assertEquals(0, st2.wayNodesGarbage);
+        assertNull(st2.getRelationById(30));
+        assertEquals("inner", st2.getRelationById(31).getMemberRole(st2, 0));
+        List<String> found = new ArrayList<>();
+        st2.byTag("n", o -> found.add(o.getObjectCode()));
+        assertEquals(Arrays.asList("n3", "n4", "n8", "n10", "n12"), found);
+
+        // wrong document is not applied
+        String xml = "<osmChange version='0.6'><delete><node id='3' lat='0' lon='0'/></delete>"
+                + "<node id='4' lat='0' lon='0'/></osmChange>";
+        try {
+            new XMLDriver(rd2).applyOsmChange(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+            fail();
+        } catch (RuntimeException ex) {
+        }
+        assertNotNull(st2.getNodeById(3));
+        xml = "<osmChange version='0.6'><delete><node id='3' lat='0' lon='0'/></delete></osmChange>";
+        new XMLDriver(rd2).applyOsmChange(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+        assertNull(st2.getNodeById(3));
+    }
+
+    @Test
+    public void testNestedChanges() throws Exception {
+        TestStorage t = storage();
+        XMLReader rd = t.rd;
+        rd.beginChanges();
+        rd.updateNode(XMLReader.UPDATE_MODE.DELETE, 5, 0, 0, null, null);
+        try {
+            rd.beginChanges();
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+
+        // document can't be applied inside of open changes, and open changes are not dropped
+        String xml = "<osmChange version='0.6'><delete><node id='3' lat='0' lon='0'/></delete></osmChange>";
+        try {
+            new XMLDriver(rd).applyOsmChange(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+        assertNotNull(t.st.getNodeById(5));
+        rd.commitChanges();
+        assertNull(t.st.getNodeById(5));
+        assertNotNull(t.st.getNodeById(3));
+
+        try {
+            rd.commitChanges();
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.alex73.osmemory.geometry.BoundingBox;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Comparison of the same reads by simple nodes arrays in ID order and by Hilbert layout: coordinates of
+ * nodes inside area, and geometry of ways in area. Nodes are placed on grid with shuffled IDs, like after
+ * years of edits. Run by main() after 'mvn test-compile' with test classpath. Add '-prof perfnorm' options
+ * to runner on Linux to see cache misses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class HilbertLayoutBenchmark {
+    static final int GRID_SIZE = 2048;
+    static final int WAY_LENGTH = 8;
+
+    MemoryStorage storage;
+    BoundingBox box = new BoundingBox();
+    // ways which have first node inside box
+    int[] areaWays;
+    // nodes inside box: positions in ID order arrays and slots in Hilbert layout
+    int[] areaPositions, areaSlots;
+
+    @Setup
+    public void setup() {
+        int count = GRID_SIZE * GRID_SIZE;
+        long[] idByCell = new long[count];
+        for (int i = 0; i < count; i++) {
+            idByCell[i] = i + 1;
+        }
+        Random rnd = new Random(1);
+        for (int i = count - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            long t = idByCell[i];
+            idByCell[i] = idByCell[j];
+            idByCell[j] = t;
+        }
+
+        storage = new MemoryStorage();
+        storage.simpleNodeIds = new long[count];
+        storage.simpleNodeLats = new int[count];
+        storage.simpleNodeLons = new int[count];
+        for (int cell = 0; cell < count; cell++) {
+            int pos = (int) idByCell[cell] - 1;
+            storage.simpleNodeIds[pos] = idByCell[cell];
+            storage.simpleNodeLats[pos] = lat(cell / GRID_SIZE);
+            storage.simpleNodeLons[pos] = lon(cell % GRID_SIZE);
+        }
+        storage.simpleNodeCount = count;
+
+        long[] nodes = new long[WAY_LENGTH];
+        long wayId = 1;
+        for (int row = 0; row < GRID_SIZE; row++) {
+            for (int col = 0; col + WAY_LENGTH <= GRID_SIZE; col += WAY_LENGTH) {
+                for (int i = 0; i < WAY_LENGTH; i++) {
+                    nodes[i] = idByCell[row * GRID_SIZE + col + i];
+                }
+                storage.appendWay(wayId++, 0, nodes, WAY_LENGTH);
+                storage.wayTags.endObject();
+            }
+        }
+        storage.resolveWayNodes();
+        storage.buildHilbertLayout();
+
+        // 1/16 of grid in the center
+        box.expandToInclude(lat(GRID_SIZE * 3 / 8), lon(GRID_SIZE * 3 / 8));
+        box.expandToInclude(lat(GRID_SIZE * 5 / 8), lon(GRID_SIZE * 5 / 8));
+        List<Integer> ways = new ArrayList<>();
+        for (int w = 0; w < storage.wayCount; w++) {
+            int p = storage.wayNodePositions[storage.wayNodesOffsets[w]];
+            int lat = storage.simpleNodeLats[p], lon = storage.simpleNodeLons[p];
+            if (lat >= box.minLat && lat <= box.maxLat && lon >= box.minLon && lon <= box.maxLon) {
+                ways.add(w);
+            }
+        }
+        areaWays = ways.stream().mapToInt(Integer::intValue).toArray();
+        IntStream.Builder slots = IntStream.builder();
+        storage.hilbertSlotsInBox(box, slots);
+        areaSlots = slots.build().toArray();
+        areaPositions = Arrays.stream(areaSlots)
+                .map(s -> storage.getNodePosition(storage.getHilbertSlotId(s))).sorted().toArray();
+    }
+
+    static int lat(int row) {
+        return -800000000 + row * (1600000000 / GRID_SIZE);
+    }
+
+    static int lon(int col) {
+        return (int) (-1700000000L + col * (3400000000L / GRID_SIZE));
+    }
+
+    @Benchmark
+    public long areaNodesIdOrder() {
+        long sum = 0;
+        int[] lats = storage.simpleNodeLats, lons = storage.simpleNodeLons;
+        for (int p : areaPositions) {
+            sum += lats[p] + lons[p];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long areaNodesHilbert() {
+        long sum = 0;
+        for (int s : areaSlots) {
+            sum += storage.getHilbertSlotLat(s) + storage.getHilbertSlotLon(s);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long areaWaysIdOrder() {
+        long sum = 0;
+        int[] lats = storage.simpleNodeLats, lons = storage.simpleNodeLons;
+        for (int w : areaWays) {
+            int from = storage.wayNodesOffsets[w];
+            int to = from + storage.wayNodesCounts[w];
+            for (int j = from; j < to; j++) {
+                int p = storage.wayNodePositions[j];
+                sum += lats[p] + lons[p];
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long areaWaysHilbert() {
+        long sum = 0;
+        for (int w : areaWays) {
+            int from = storage.wayNodesOffsets[w];
+            int to = from + storage.wayNodesCounts[w];
+            for (int j = from; j < to; j++) {
+                int s = storage.getHilbertSlotByPosition(storage.wayNodePositions[j]);
+                sum += storage.getHilbertSlotLat(s) + storage.getHilbertSlotLon(s);
+            }
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(HilbertLayoutBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,92 @@
+package org.alex73.osmemory;
+
+import static org.alex73.osmemory.TestStorage.tags;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.alex73.osmemory.geometry.BoundingBox;
+import org.junit.Test;
+
+public class HilbertLayoutTest {
+    static final int GRID_SIZE = 40;
+
+    @Test
+    public void testLayout() throws Exception {
+        TestStorage t = new TestStorage();
+        // nodes on grid with shuffled IDs
+        List<Integer> cells = new ArrayList<>();
+        for (int c = 0; c < GRID_SIZE * GRID_SIZE; c++) {
+            cells.add(c);
+        }
+        Collections.shuffle(cells, new Random(1));
+        for (int i = 0; i < cells.size(); i++) {
+            int c = cells.get(i);
+            t.node(i + 1, 50 + c / GRID_SIZE * 0.1, 20 + c % GRID_SIZE * 0.1);
+        }
+        t.node(cells.size() + 1, 51, 21, "place", "town");
+        MemoryStorage st = t.finish();
+        HilbertLayout layout = new HilbertLayout(st);
+
+        assertEquals(GRID_SIZE * GRID_SIZE, layout.lats.length);
+        for (int p = 0; p < st.simpleNodeCount; p++) {
+            int s = layout.slots[p];
+            assertEquals(p, layout.positions[s]);
+            assertEquals(st.simpleNodeLats[p], layout.lats[s]);
+            assertEquals(st.simpleNodeLons[p], layout.lons[s]);
+        }
+        for (int s = 1; s < layout.lats.length; s++) {
+            assertTrue(SpatialIndex.hilbert(layout.lats[s - 1], layout.lons[s - 1]) <= SpatialIndex
+                    .hilbert(layout.lats[s], layout.lons[s]));
+        }
+
+        BoundingBox box = new BoundingBox();
+        box.expandToInclude(507000000, 213000000);
+        box.expandToInclude(512000000, 224000000);
+        List<Integer> expected = new ArrayList<>();
+        for (int p = 0; p < st.simpleNodeCount; p++) {
+            int lat = st.simpleNodeLats[p], lon = st.simpleNodeLons[p];
+            if (lat >= box.minLat && lat <= box.maxLat && lon >= box.minLon && lon <= box.maxLon) {
+                expected.add(p);
+            }
+        }
+        List<Integer> found = new ArrayList<>();
+        layout.query(box.minLat, box.maxLat, box.minLon, box.maxLon, s -> found.add(layout.positions[s]));
+        Collections.sort(found);
+        assertEquals(6 * 12, expected.size());
+        assertEquals(expected, found);
+    }
+
+    @Test
+    public void testStorageAccess() throws Exception {
+        TestStorage t = new TestStorage();
+        t.node(1, 52, 23).node(2, 54, 30, "place", "city").node(3, 10, 10);
+        MemoryStorage st = t.finish();
+
+        // layout is built on the first call
+        int slot = st.getHilbertSlot(3);
+        assertEquals(3, st.getHilbertSlotId(slot));
+        assertEquals(100000000, st.getHilbertSlotLat(slot));
+        assertEquals(slot, st.getHilbertSlotByPosition(st.getNodePosition(3)));
+        assertEquals(-1, st.getHilbertSlot(2));
+        assertEquals(-1, st.getHilbertSlotByPosition(st.getNodePosition(2)));
+        assertEquals(-1, st.getHilbertSlotByPosition(MemoryStorage.NODE_POSITION_MISSING));
+
+        // layout is dropped by update and built again
+        t.rd.updateNode(XMLReader.UPDATE_MODE.MODIFY, 2, 54, 30, tags(), "u");
+        slot = st.getHilbertSlot(2);
+        assertEquals(2, st.getHilbertSlotId(slot));
+        BoundingBox box = new BoundingBox();
+        box.expandToInclude(515000000, 220000000);
+        box.expandToInclude(550000000, 310000000);
+        List<Long> found = new ArrayList<>();
+        st.hilbertSlotsInBox(box, s -> found.add(st.getHilbertSlotId(s)));
+        Collections.sort(found);
+        assertEquals(2, found.size());
+        assertEquals(Long.valueOf(1), found.get(0));
+        assertEquals(Long.valueOf(2), found.get(1));
+    }
+}
@@ -0,0 +1,229 @@
+package org.alex73.osmemory;
+
+import static org.alex73.osmemory.TestStorage.tags;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.alex73.osmemory.geometry.BoundingBox;
+import org.junit.Test;
+
+public class MemoryStorageTest {
+    @Test
+    public void testTaggedNodes() throws Exception {
+        TestStorage t = new TestStorage();
+        t.node(3, 53, 27, "place", "city", "name", "Minsk").node(1, 52, 23, "place", "town").node(2, 54, 30);
+        MemoryStorage st = t.finish();
+
+        IOsmNode n = st.getNodeById(3);
+        assertEquals(530000000, n.getLat());
+        assertEquals("Minsk", n.getTag("name", st));
+        assertEquals("town", st.getNodeById(1).getTag("place", st));
+        assertFalse(st.getNodeById(2).hasTag("place", st));
+
+        // change tags count of the first node, then tags of next node should be the same
+        t.rd.updateNode(XMLReader.UPDATE_MODE.MODIFY, 1, 52, 23, tags("place", "town", "name", "Brest"), "u");
+        assertEquals("Brest", st.getNodeById(1).getTag("name", st));
+        assertEquals("Minsk", st.getNodeById(3).getTag("name", st));
+
+        // simple node becomes tagged and tagged becomes simple
+        t.rd.updateNode(XMLReader.UPDATE_MODE.MODIFY, 2, 54, 30, tags("place", "village"), "u");
+        t.rd.updateNode(XMLReader.UPDATE_MODE.MODIFY, 3, 53, 27, tags(), "u");
+        assertEquals("village", st.getNodeById(2).getTag("place", st));
+        assertNull(st.getNodeById(3).getTag("name", st));
+
+        t.rd.updateNode(XMLReader.UPDATE_MODE.DELETE, 1, 0, 0, null, null);
+        assertNull(st.getNodeById(1));
+
+        int[] count = new int[1];
+        st.byTag("place", o -> count[0]++);
+        assertEquals(1, count[0]);
+    }
+
+    @Test
+    public void testWays() throws Exception {
+        TestStorage t = new TestStorage();
+        t.way(2, new long[] { 1, 2, 3 }, "highway", "primary").way(1, new long[] { 4, 5 }, "building", "yes");
+        MemoryStorage st = t.finish();
+
+        IOsmWay w = st.getWayById(2);
+        assertEquals(3, w.getNodesCount());
+        assertEquals(2, w.getNodeId(1));
+        assertArrayEquals(new long[] { 4, 5 }, st.getWayById(1).getNodeIds());
+
+        t.rd.updateWay(XMLReader.UPDATE_MODE.MODIFY, 2, new long[] { 7, 8 }, tags("highway", "secondary"),
+                "u");
+        assertArrayEquals(new long[] { 7, 8 }, st.getWayById(2).getNodeIds());
+        assertEquals("secondary", st.getWayById(2).getTag("highway", st));
+        // way got before update is still the same
+        assertArrayEquals(new long[] { 1, 2, 3 }, w.getNodeIds());
+
+        t.rd.updateWay(XMLReader.UPDATE_MODE.DELETE, 1, null, null, null);
+        assertNull(st.getWayById(1));
+        st.compactWayNodes();
+        assertArrayEquals(new long[] { 7, 8 }, st.getWayById(2).getNodeIds());
+    }
+
+    @Test
+    public void testResolveWayNodes() throws Exception {
+        TestStorage t = new TestStorage();
+        t.node(1, 52, 23).node(2, 53, 24, "place", "town").node(3, 54, 25);
+        MemoryStorage st = t.way(1, new long[] { 1, 2, 3, 9 }).way(2, new long[] { 3, 1 }).finish();
+        st.resolveWayNodes();
+        OsmWay w = (OsmWay) st.getWayById(1);
+        assertEquals(0, w.getNodePosition(st, 0));
+        assertEquals(-2, w.getNodePosition(st, 1));
+        assertEquals(1, w.getNodePosition(st, 2));
+        assertEquals(MemoryStorage.NODE_POSITION_MISSING, w.getNodePosition(st, 3));
+
+        // positions of simple nodes are shifted by update, way got before should use new positions
+        t.rd.updateNode(XMLReader.UPDATE_MODE.DELETE, 1, 0, 0, null, null);
+        assertEquals(MemoryStorage.NODE_POSITION_MISSING, w.getNodePosition(st, 0));
+        assertEquals(0, w.getNodePosition(st, 2));
+        assertEquals(540000000, st.getNodeLatByPosition(w.getNodePosition(st, 2)));
+
+        // node IDs of old way version are garbage now, but still resolved
+        t.rd.updateWay(XMLReader.UPDATE_MODE.MODIFY, 1, new long[] { 2 }, tags(), "u");
+        st.resolveWayNodes();
+        assertEquals(0, w.getNodePosition(st, 2));
+        assertEquals(-2, ((OsmWay) st.getWayById(1)).getNodePosition(st, 0));
+        st.compactWayNodes();
+        assertEquals(0, w.getNodePosition(st, 2));
+        assertEquals(0, ((OsmWay) st.getWayById(2)).getNodePosition(st, 0));
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        TestStorage t = new TestStorage();
+        for (int i = 1; i <= 1000; i++) {
+            if (i % 3 == 0) {
+                t.node(i, 52, 23, "name", "n" + i);
+            } else {
+                t.node(i, 52, 23, "place", "town");
+            }
+            if (i % 5 == 0) {
+                t.way(i, new long[] { i }, "name", "w" + i);
+            } else {
+                t.way(i, new long[] { i });
+            }
+        }
+        MemoryStorage st = t.finish();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ParallelCollector<IOsmObject> collector = new ParallelCollector<>();
+            st.parallelByTag("name", pool, collector);
+            assertEquals(333 + 200, collector.getResult().size());
+
+            st.buildTagIndex();
+            collector = new ParallelCollector<>();
+            st.parallelByTag("name", pool, collector);
+            assertEquals(333 + 200, collector.getResult().size());
+
+            collector = new ParallelCollector<>();
+            st.parallelAll(pool, o -> o.isWay(), collector);
+            assertEquals(1000, collector.getResult().size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testStreams() throws Exception {
+        TestStorage t = new TestStorage();
+        for (int i = 1; i <= 1000; i++) {
+            if (i % 3 == 0) {
+                t.node(i, 52, 23, "name", "n" + i);
+            } else {
+                t.node(i, 52, 23);
+            }
+            t.way(i, new long[] { i });
+        }
+        MemoryStorage st = t.finish();
+
+        assertEquals(1000, st.nodeStream().parallel().count());
+        assertEquals(333, st.nodeStream().parallel().filter(n -> n.hasTag("name", st)).count());
+        assertArrayEquals(st.nodeIdStream().toArray(), st.nodeStream().parallel()
+                .mapToLong(n -> n.getId()).toArray());
+        assertEquals(1000L * 520000000, st.nodeLatStream().asLongStream().sum());
+        assertEquals(500500, st.wayStream().parallel().mapToLong(w -> w.getId()).sum());
+        assertEquals(500500, st.wayIdStream().parallel().sum());
+        assertEquals(0, st.relationStream().count());
+    }
+
+    @Test
+    public void testScanSimpleNodes() throws Exception {
+        TestStorage t = new TestStorage();
+        for (int i = 1; i <= 100; i++) {
+            if (i % 7 == 0) {
+                t.node(i, i % 10, i / 10, "name", "n");
+            } else {
+                t.node(i, i % 10, i / 10);
+            }
+        }
+        MemoryStorage st = t.finish();
+        BoundingBox box = new BoundingBox();
+        box.expandToInclude(20000000, 20000000);
+        box.expandToInclude(40000000, 50000000);
+
+        long[] sum = new long[2];
+        st.scanSimpleNodes((id, lat, lon) -> sum[0] += id);
+        assertEquals(5050 - 7 * (14 * 15 / 2), sum[0]);
+        st.scanSimpleNodes(null, (id, lat, lon) -> sum[1] += id);
+        assertEquals(sum[0], sum[1]);
+
+        List<Long> found = new ArrayList<>();
+        st.scanSimpleNodes(box, (id, lat, lon) -> found.add(id));
+        assertEquals(Arrays.asList(22L, 23L, 24L, 32L, 33L, 34L, 43L, 44L, 52L, 53L, 54L), found);
+        st.buildHilbertLayout();
+        found.clear();
+        st.scanSimpleNodes(box, (id, lat, lon) -> found.add(id));
+        found.sort(null);
+        assertEquals(Arrays.asList(22L, 23L, 24L, 32L, 33L, 34L, 43L, 44L, 52L, 53L, 54L), found);
+
+        ParallelCollector<Long> collector = new ParallelCollector<>();
+        st.parallelScanSimpleNodes(ForkJoinPool.commonPool(), box, (id, lat, lon) -> collector.accept(id));
+        assertEquals(11, collector.getResult().size());
+    }
+
+    @Test
+    public void testWideCodes() throws Exception {
+        TestStorage t = new TestStorage();
+        MemoryStorage st = t.st;
+        t.rd.updateNode(XMLReader.UPDATE_MODE.CREATE, 1, 52, 23, tags("place", "town"), "u1");
+        t.rd.updateWay(XMLReader.UPDATE_MODE.CREATE, 1, new long[] { 1 }, tags("highway", "primary"), "u1");
+        assertFalse(st.nodeTags.keys.isWide());
+        assertFalse(st.nodeUsers.isWide());
+
+        for (int i = 0; i < 40000; i++) {
+            st.getTagsPack().getTagCode("key" + i);
+            st.getUsersPack().getTagCode("user" + i);
+        }
+        t.rd.updateNode(XMLReader.UPDATE_MODE.CREATE, 2, 54, 30, tags("key39999", "v"), "user39999");
+        t.rd.updateWay(XMLReader.UPDATE_MODE.CREATE, 2, new long[] { 2 }, tags("key39998", "w"), "user39998");
+        t.finish();
+        assertTrue(st.nodeTags.keys.isWide());
+        assertTrue(st.nodeUsers.isWide());
+
+        assertEquals("town", st.getNodeById(1).getTag("place", st));
+        assertEquals("u1", st.getNodeById(1).getUser(st));
+        assertEquals("v", st.getNodeById(2).getTag("key39999", st));
+        assertEquals("user39999", st.getNodeById(2).getUser(st));
+        assertEquals("w", st.getWayById(2).getTag("key39998", st));
+        assertEquals("user39998", st.getWayById(2).getUser(st));
+
+        File f = File.createTempFile("osmemory", ".snapshot");
+        try {
+            st.saveSnapshot(f);
+            MemoryStorage loaded = MemoryStorage.loadSnapshot(f);
+            assertEquals("v", loaded.getNodeById(2).getTag("key39999", loaded));
+            assertEquals("user39998", loaded.getWayById(2).getUser(loaded));
+            assertEquals("primary", loaded.getWayById(1).getTag("highway", loaded));
+        } finally {
+            f.delete();
+        }
+    }
+}
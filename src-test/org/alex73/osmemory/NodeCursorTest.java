@@ -0,0 +1,50 @@
+package org.alex73.osmemory;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class NodeCursorTest {
+    @Test
+    public void testCursor() throws Exception {
+        TestStorage t = new TestStorage();
+        MemoryStorage st = t.node(1, 52, 23).node(2, 54, 30, "place", "city").finish();
+        NodeCursor c = st.newNodeCursor();
+        assertFalse(c.isDefined());
+
+        assertTrue(c.moveToId(1));
+        assertEquals(1, c.getId());
+        assertEquals(520000000, c.getLat());
+        assertEquals(230000000, c.getLon());
+        assertFalse(c.hasTags());
+
+        assertTrue(c.moveToId(2));
+        assertEquals(540000000, c.getLat());
+        assertEquals(300000000, c.getLon());
+        assertEquals(54, c.getLatitude(), 1e-7);
+        assertTrue(c.hasTags());
+        assertEquals("city", c.getNode().getTag("place", st));
+
+        assertTrue(c.moveToPosition(st.getNodePosition(1)));
+        assertEquals(1, c.getNode().getId());
+        assertEquals(st.getNodePosition(1), c.getPosition());
+
+        assertFalse(c.moveToId(3));
+        assertFalse(c.isDefined());
+        assertNull(c.getNode());
+        try {
+            c.getLat();
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+        assertFalse(c.moveToPosition(MemoryStorage.NODE_POSITION_MISSING));
+        try {
+            c.getId();
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+
+        assertEquals(540000000, st.lookupLat(2));
+        assertEquals(Integer.MIN_VALUE, st.lookupLon(3));
+    }
+}
@@ -0,0 +1,120 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Comparison of node coordinates read by getNodeById(), lookupLat()/lookupLon() and NodeCursor. Run by main()
+ * after 'mvn test-compile' with test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class NodeLookupBenchmark {
+    static final int NODES_COUNT = 10 * 1024 * 1024;
+
+    MemoryStorage storage;
+    NodeCursor cursor;
+    long[] ids = new long[4096];
+    int[] positions = new int[ids.length];
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(1);
+        storage = new MemoryStorage();
+        storage.simpleNodeIds = new long[NODES_COUNT];
+        storage.simpleNodeLats = new int[NODES_COUNT];
+        storage.simpleNodeLons = new int[NODES_COUNT];
+        long id = 0;
+        for (int i = 0; i < NODES_COUNT; i++) {
+            id += 1 + rnd.nextInt(3);
+            storage.simpleNodeIds[i] = id;
+            storage.simpleNodeLats[i] = rnd.nextInt(900000000);
+            storage.simpleNodeLons[i] = rnd.nextInt(1800000000);
+        }
+        storage.simpleNodeCount = NODES_COUNT;
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = storage.simpleNodeIds[rnd.nextInt(NODES_COUNT)];
+            positions[i] = storage.getNodePosition(ids[i]);
+        }
+        cursor = storage.newNodeCursor();
+    }
+
+    @Benchmark
+    public long getNodeById() {
+        long sum = 0;
+        for (long id : ids) {
+            IOsmNode n = storage.getNodeById(id);
+            sum += n.getLat() + n.getLon();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long lookup() {
+        long sum = 0;
+        for (long id : ids) {
+            sum += storage.lookupLat(id) + storage.lookupLon(id);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long cursor() {
+        long sum = 0;
+        for (long id : ids) {
+            cursor.moveToId(id);
+            sum += cursor.getLat() + cursor.getLon();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long cursorByPosition() {
+        long sum = 0;
+        for (int p : positions) {
+            cursor.moveToPosition(p);
+            sum += cursor.getLat() + cursor.getLon();
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(NodeLookupBenchmark.class.getSimpleName()).build()).run();
+    }
+}
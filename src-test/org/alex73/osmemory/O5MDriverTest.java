@@ -0,0 +1,65 @@
+package org.alex73.osmemory;
+
+import static org.alex73.osmemory.TestBytes.o5mSample;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class O5MDriverTest {
+    @Test
+    public void testWindowBoundary() throws Exception {
+        File f = File.createTempFile("osmemory", ".o5m");
+        try {
+            Files.write(f.toPath(), o5mSample());
+            String expected = TestStorage.dump(new O5MReader().read(f));
+            // records cross window boundaries, and relation record is longer than window
+            for (int windowSize : new int[] { 16, 37, 100 }) {
+                O5MReader reader = new O5MReader();
+                O5MDriver driver = new O5MDriver(reader);
+                driver.windowSize = windowSize;
+                try (FileChannel ch = O5MDriver.open(f)) {
+                    driver.read(ch, 1, ch.size());
+                }
+                reader.storage.finishLoading();
+                assertEquals(expected, TestStorage.dump(reader.storage));
+            }
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void testStreamRefill() throws Exception {
+        byte[] o5m = o5mSample();
+        File f = File.createTempFile("osmemory", ".o5m");
+        try {
+            Files.write(f.toPath(), o5m);
+            String expected = TestStorage.dump(new O5MReader().read(f));
+            // buffer is refilled for almost each record, and grows for relation record
+            for (int bufferSize : new int[] { 16, 37, 100 }) {
+                O5MReader reader = new O5MReader();
+                O5MDriver driver = new O5MDriver(reader);
+                driver.streamBufferSize = bufferSize;
+                // stream returns few bytes by each read, like pipe
+                InputStream in = new ByteArrayInputStream(o5m) {
+                    @Override
+                    public synchronized int read(byte[] b, int off, int len) {
+                        return super.read(b, off, Math.min(len, 7));
+                    }
+                };
+                driver.read(Channels.newChannel(in));
+                reader.storage.finishLoading();
+                assertEquals(expected, TestStorage.dump(reader.storage));
+            }
+        } finally {
+            f.delete();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.alex73.osmemory;
+
+import static org.alex73.osmemory.TestBytes.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class O5MReaderTest {
+    @Test
+    public void testO5cChanges() throws Exception {
+        TestStorage t = new TestStorage();
+        t.node(1, 52, 23).node(2, 52, 24, "place", "town").way(5, new long[] { 1, 2 }, "highway", "primary");
+        t.relation(7, new long[] { 5 }, new byte[] { IOsmObject.TYPE_WAY }, new String[] { "outer" });
+        MemoryStorage st = t.finish();
+
+        byte[] o5c = concat(new byte[] { (byte) 0xFF }, o5mDataset(0xE0, "o5c2".getBytes("UTF-8")),
+                // node 1 moved, node 2 deleted, node 3 created with tag
+                o5mDataset(0x10, concat(signed(1), varint(0), signed(230000000), signed(530000000))),
+                o5mDataset(0x10, concat(signed(1), varint(0))),
+                o5mDataset(0x10, concat(signed(1), varint(0), signed(40000000), signed(0), varint(0),
+                        "place\0city\0".getBytes("UTF-8"))),
+                // way 5 deleted, way 6 created
+                new byte[] { (byte) 0xFF }, o5mDataset(0x11, signed(5)),
+                o5mDataset(0x11, concat(signed(1), varint(0), varint(2), signed(1), signed(2))),
+                // relation 7 deleted
+                new byte[] { (byte) 0xFF }, o5mDataset(0x12, concat(signed(7), varint(0))),
+                new byte[] { (byte) 0xFE });
+        new O5MReader(st, -90, 90, -180, 180).applyChanges(new ByteArrayInputStream(o5c));
+
+        assertEquals(530000000, st.getNodeById(1).getLat());
+        assertNull(st.getNodeById(2));
+        assertEquals("city", st.getNodeById(3).getTag("place", st));
+        assertNull(st.getWayById(5));
+        assertArrayEquals(new long[] { 1, 3 }, st.getWayById(6).getNodeIds());
+        assertNull(st.getRelationById(7));
+    }
+
+    @Test
+    public void testParallelRead() throws Exception {
+        byte[] reset = new byte[] { (byte) 0xFF };
+        File f = File.createTempFile("osmemory", ".o5m");
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            Files.write(f.toPath(), o5mSample());
+            MemoryStorage sequential = new O5MReader().read(f);
+            MemoryStorage parallel = new O5MReader().read(f, pool);
+            assertEquals(510, parallel.nodeStream().count());
+            assertArrayEquals(new long[] { 20, 21, 25 }, parallel.wayIdStream().toArray());
+            assertEquals("multipolygon", parallel.getRelationById(30).getTag("type", parallel));
+            assertEquals(TestStorage.dump(sequential), TestStorage.dump(parallel));
+
+            // the second part overlaps the first one
+            Files.write(f.toPath(), concat(reset, o5mDataset(0xE0, "o5m2".getBytes("UTF-8")),
+                    o5mNodes(1, 300), reset, o5mNodes(200, 400), new byte[] { (byte) 0xFE }));
+            try {
+                new O5MReader().read(f, pool);
+                fail();
+            } catch (Exception ex) {
+                assertEquals("Nodes must be ordered by ID, but parts between reset marks overlap",
+                        ex.getMessage());
+            }
+        } finally {
+            pool.shutdown();
+            f.delete();
+        }
+    }
+}
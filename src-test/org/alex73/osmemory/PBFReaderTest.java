@@ -0,0 +1,174 @@
+package org.alex73.osmemory;
+
+import static org.alex73.osmemory.TestBytes.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.DeflaterOutputStream;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+public class PBFReaderTest {
+    @Test
+    public void testPbf() throws Exception {
+        byte[] strings = concat(pbfBytes(1, new byte[0]), pbfBytes(1, "u".getBytes("UTF-8")),
+                pbfBytes(1, "highway".getBytes("UTF-8")), pbfBytes(1, "primary".getBytes("UTF-8")),
+                pbfBytes(1, "outer".getBytes("UTF-8")));
+        // nodes 10, 11, 13 with delta coding, the second node has tag
+        byte[] dense = concat(pbfSigned(1, 10, 1, 2), pbfBytes(5, pbfSigned(5, 1, 0, 0)),
+                pbfSigned(8, 520000000, 1, -1), pbfSigned(9, 270000000, 0, 0), pbfPacked(10, 0, 2, 3, 0, 0));
+        byte[] way = concat(pbfVarint(1, 5), pbfPacked(2, 2), pbfPacked(3, 3), pbfSigned(8, 10, 1));
+        byte[] relation = concat(pbfVarint(1, 7), pbfPacked(8, 4), pbfSigned(9, 5), pbfPacked(10, 1));
+        byte[] block = concat(pbfBytes(1, strings), pbfBytes(2, pbfBytes(2, dense)),
+                pbfBytes(2, concat(pbfBytes(3, way), pbfBytes(4, relation))));
+        byte[] header = concat(pbfBytes(4, "OsmSchema-V0.6".getBytes("UTF-8")),
+                pbfBytes(4, "DenseNodes".getBytes("UTF-8")));
+        byte[] file = concat(pbfBlob("OSMHeader", header), pbfBlob("OSMData", block));
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        MemoryStorage st;
+        try {
+            st = new PBFReader().read(new ByteArrayInputStream(file), pool);
+        } finally {
+            pool.shutdown();
+        }
+        assertArrayEquals(new long[] { 10, 11, 13 }, st.nodeIdStream().sorted().toArray());
+        IOsmNode n = st.getNodeById(11);
+        assertEquals(520000001, n.getLat());
+        assertEquals(270000000, n.getLon());
+        assertEquals("primary", n.getTag("highway", st));
+        assertEquals("u", n.getUser(st));
+        IOsmWay w = st.getWayById(5);
+        assertArrayEquals(new long[] { 10, 11 }, w.getNodeIds());
+        assertEquals("primary", w.getTag("highway", st));
+        IOsmRelation r = st.getRelationById(7);
+        assertEquals(5, r.getMemberID(0));
+        assertEquals(IOsmObject.TYPE_WAY, r.getMemberType(0));
+        assertEquals("outer", r.getMemberRole(st, 0));
+    }
+
+    /**
+     * Objects of {@link TestBytes#o5mSample()} in many blobs, so ways refer to nodes from other blobs.
+     */
+    @Test
+    public void testManyBlobs() throws Exception {
+        byte[] header = concat(pbfBytes(4, "OsmSchema-V0.6".getBytes("UTF-8")),
+                pbfBytes(4, "DenseNodes".getBytes("UTF-8")));
+        byte[] wayStrings = concat(pbfBytes(1, new byte[0]), pbfBytes(1, "highway".getBytes("UTF-8")),
+                pbfBytes(1, "primary".getBytes("UTF-8")));
+        byte[] ways = pbfBlock(wayStrings, pbfBytes(3, concat(pbfVarint(1, 20), pbfSigned(8, 1, 1, 299))),
+                pbfBytes(3, concat(pbfVarint(1, 21), pbfPacked(2, 1), pbfPacked(3, 2),
+                        pbfSigned(8, 301, 205))),
+                pbfBytes(3, concat(pbfVarint(1, 22), pbfSigned(8, 995))));
+        byte[] relationStrings = concat(pbfBytes(1, new byte[0]), pbfBytes(1, "outer".getBytes("UTF-8")),
+                pbfBytes(1, "label".getBytes("UTF-8")), pbfBytes(1, "type".getBytes("UTF-8")),
+                pbfBytes(1, "multipolygon".getBytes("UTF-8")));
+        byte[] relation = pbfBlock(relationStrings, pbfBytes(4, concat(pbfVarint(1, 30), pbfPacked(2, 3),
+                pbfPacked(3, 4), pbfPacked(8, 1, 2), pbfSigned(9, 20, -17), pbfPacked(10, 1, 0))));
+        byte[] lastWay = pbfBlock(wayStrings, pbfBytes(3, concat(pbfVarint(1, 25), pbfSigned(8, 505))));
+        byte[] file = concat(pbfBlob("OSMHeader", header), pbfNodesBlob(1, 300), pbfNodesBlob(301, 500),
+                pbfNodesBlob(501, 510), pbfBlob("OSMData", ways), pbfBlob("OSMData", lastWay),
+                pbfBlob("OSMData", relation));
+
+        File o5m = File.createTempFile("osmemory", ".o5m");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            Files.write(o5m.toPath(), o5mSample());
+            String expected = TestStorage.dump(new O5MReader().read(o5m));
+            MemoryStorage st = new PBFReader().read(new ByteArrayInputStream(file), pool);
+            assertArrayEquals(new long[] { 20, 21, 25 }, st.wayIdStream().toArray());
+            assertEquals(expected, TestStorage.dump(st));
+            st = new PBFReader().read(new ByteArrayInputStream(file), single);
+            assertEquals(expected, TestStorage.dump(st));
+
+            // only nodes from the first blob are inside crop box, so way 20 is kept by them
+            Envelope crop = new Envelope(23, 23.03005, 52, 52.03005);
+            expected = TestStorage.dump(new O5MReader(crop).read(o5m));
+            st = new PBFReader(crop).read(new ByteArrayInputStream(file), pool);
+            assertEquals(300, st.nodeStream().count());
+            assertArrayEquals(new long[] { 20 }, st.wayIdStream().toArray());
+            assertEquals(expected, TestStorage.dump(st));
+        } finally {
+            pool.shutdown();
+            single.shutdown();
+            o5m.delete();
+        }
+    }
+
+    /**
+     * Dense nodes like {@link TestBytes#o5mNodes(long, long)}.
+     */
+    static byte[] pbfNodesBlob(long from, long to) throws Exception {
+        int count = (int) (to - from + 1);
+        long[] ids = new long[count], lats = new long[count], lons = new long[count];
+        long[] keysValues = new long[count + count / 3 * 2 + 2];
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        strings.write(concat(pbfBytes(1, new byte[0]), pbfBytes(1, "name".getBytes("UTF-8"))));
+        int sid = 2, kv = 0;
+        for (int i = 0; i < count; i++) {
+            long id = from + i;
+            ids[i] = i == 0 ? id : 1;
+            lats[i] = i == 0 ? 520000000 + id * 1000 : 1000;
+            lons[i] = i == 0 ? 230000000 + id * 1000 : 1000;
+            if (id % 3 == 0) {
+                strings.write(pbfBytes(1, ("n" + id).getBytes("UTF-8")));
+                keysValues[kv++] = 1;
+                keysValues[kv++] = sid++;
+            }
+            keysValues[kv++] = 0;
+        }
+        byte[] dense = concat(pbfSigned(1, ids), pbfSigned(8, lats), pbfSigned(9, lons),
+                pbfPacked(10, Arrays.copyOf(keysValues, kv)));
+        return pbfBlob("OSMData", pbfBlock(strings.toByteArray(), pbfBytes(2, dense)));
+    }
+
+    static byte[] pbfBlock(byte[] strings, byte[]... objects) {
+        return concat(pbfBytes(1, strings), pbfBytes(2, concat(objects)));
+    }
+
+    static byte[] pbfBlob(String type, byte[] data) throws Exception {
+        ByteArrayOutputStream zlib = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(zlib)) {
+            out.write(data);
+        }
+        byte[] blob = concat(pbfVarint(2, data.length), pbfBytes(3, zlib.toByteArray()));
+        byte[] header = concat(pbfBytes(1, type.getBytes("UTF-8")), pbfVarint(3, blob.length));
+        return concat(new byte[] { 0, 0, (byte) (header.length >> 8), (byte) header.length }, header, blob);
+    }
+
+    static byte[] pbfVarint(int field, long value) {
+        return concat(varint(field << 3), varint(value));
+    }
+
+    static byte[] pbfBytes(int field, byte[] value) {
+        return concat(varint(field << 3 | 2), varint(value.length), value);
+    }
+
+    static byte[] pbfPacked(int field, long... values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (long v : values) {
+            byte[] b = varint(v);
+            out.write(b, 0, b.length);
+        }
+        return pbfBytes(field, out.toByteArray());
+    }
+
+    /**
+     * Packed array of zigzag-encoded values.
+     */
+    static byte[] pbfSigned(int field, long... values) {
+        long[] encoded = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            encoded[i] = (values[i] << 1) ^ (values[i] >> 63);
+        }
+        return pbfPacked(field, encoded);
+    }
+}
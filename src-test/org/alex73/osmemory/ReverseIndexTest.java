@@ -0,0 +1,35 @@
+package org.alex73.osmemory;
+
+import static org.alex73.osmemory.TestStorage.tags;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ReverseIndexTest {
+    @Test
+    public void testReverseIndex() throws Exception {
+        TestStorage t = new TestStorage();
+        t.rd.setBuildReverseIndex(true);
+        t.node(1, 52, 23).node(2, 54, 30, "place", "city").node(3, 10, 10);
+        // closed way
+        t.way(1, new long[] { 1, 2, 3, 1 }).way(2, new long[] { 2, 4 });
+        t.relation(1, new long[] { 1, 2, 1 }, new byte[] { IOsmObject.TYPE_WAY, IOsmObject.TYPE_NODE,
+                IOsmObject.TYPE_WAY }, new String[] { "", "", "" });
+        t.relation(2, new long[] { 1 }, new byte[] { IOsmObject.TYPE_RELATION }, new String[] { "" });
+        MemoryStorage st = t.finish();
+        assertNotNull(st.reverseIndex);
+
+        assertArrayEquals(new long[] { 1 }, st.getWaysForNode(1));
+        assertArrayEquals(new long[] { 1, 2 }, st.getWaysForNode(2));
+        assertArrayEquals(new long[0], st.getWaysForNode(4));
+        assertArrayEquals(new long[] { 1 }, st.getRelationsForMember(IOsmObject.TYPE_WAY, 1));
+        assertArrayEquals(new long[0], st.getRelationsForMember(IOsmObject.TYPE_WAY, 2));
+        assertArrayEquals(new long[] { 1 }, st.getRelationsForMember(IOsmObject.TYPE_NODE, 2));
+        assertArrayEquals(new long[] { 2 }, st.getRelationsForMember(IOsmObject.TYPE_RELATION, 1));
+
+        // index is rebuilt after update
+        t.rd.updateWay(XMLReader.UPDATE_MODE.MODIFY, 2, new long[] { 3, 4 }, tags(), "u");
+        assertArrayEquals(new long[] { 1 }, st.getWaysForNode(2));
+        assertArrayEquals(new long[] { 1, 2 }, st.getWaysForNode(3));
+    }
+}
@@ -0,0 +1,37 @@
+package org.alex73.osmemory;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.alex73.osmemory.geometry.BoundingBox;
+import org.junit.Test;
+
+public class SpatialIndexTest {
+    @Test
+    public void testInBox() throws Exception {
+        TestStorage t = new TestStorage();
+        t.node(1, 52, 23).node(2, 54, 30, "place", "city").node(3, 10, 10);
+        // way with missing node 4
+        t.way(1, new long[] { 1, 2, 4 }).way(2, new long[] { 4, 5 });
+        t.relation(1, new long[] { 1, 3 }, new byte[] { IOsmObject.TYPE_WAY, IOsmObject.TYPE_NODE },
+                new String[] { "", "" });
+        MemoryStorage st = t.finish();
+
+        BoundingBox box = new BoundingBox();
+        box.expandToInclude(535000000, 290000000);
+        box.expandToInclude(545000000, 310000000);
+        List<String> found = new ArrayList<>();
+        st.inBox(box, o -> found.add(o.getObjectCode()));
+        assertEquals(Arrays.asList("n2", "w1", "r1"), found);
+
+        box = new BoundingBox();
+        box.expandToInclude(200000000, 200000000);
+        box.expandToInclude(300000000, 210000000);
+        found.clear();
+        st.inBox(box, o -> found.add(o.getObjectCode()));
+        assertEquals(Arrays.asList("r1"), found);
+    }
+}
@@ -0,0 +1,76 @@
+package org.alex73.osmemory;
+
+import static org.alex73.osmemory.TestStorage.tags;
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Test;
+
+public class StorageSnapshotTest {
+    @Test
+    public void testSnapshot() throws Exception {
+        TestStorage t = new TestStorage();
+        MemoryStorage st = t.st;
+        XMLReader rd = t.rd;
+        rd.updateNode(XMLReader.UPDATE_MODE.CREATE, 1, 52, 23, tags("place", "town"), "u1");
+        rd.updateNode(XMLReader.UPDATE_MODE.CREATE, 2, 54, 30, tags(), "u2");
+        rd.updateWay(XMLReader.UPDATE_MODE.CREATE, 1, new long[] { 1, 2 }, tags("highway", "primary"), "u1");
+        rd.updateWay(XMLReader.UPDATE_MODE.CREATE, 2, new long[] { 2, 1 }, tags(), "u1");
+        rd.updateRelation(XMLReader.UPDATE_MODE.CREATE, 1, new long[] { 1, 2 }, new byte[] {
+                IOsmObject.TYPE_WAY, IOsmObject.TYPE_NODE }, new String[] { "outer", "" },
+                tags("type", "multipolygon"), "u2");
+        st.finishLoading();
+        // node IDs of updated way are placed at the end
+        rd.updateWay(XMLReader.UPDATE_MODE.MODIFY, 1, new long[] { 1, 2, 1 }, tags("highway", "primary"),
+                "u1");
+
+        File f = File.createTempFile("osmemory", ".snapshot");
+        try {
+            st.saveSnapshot(f);
+            MemoryStorage loaded = MemoryStorage.loadSnapshot(f);
+
+            assertEquals("town", loaded.getNodeById(1).getTag("place", loaded));
+            assertEquals("u1", loaded.getNodeById(1).getUser(loaded));
+            assertEquals(540000000, loaded.getNodeById(2).getLat());
+            assertArrayEquals(new long[] { 1, 2, 1 }, loaded.getWayById(1).getNodeIds());
+            assertArrayEquals(new long[] { 2, 1 }, loaded.getWayById(2).getNodeIds());
+            assertEquals("primary", loaded.getWayById(1).getTag("highway", loaded));
+            IOsmRelation r = loaded.getRelationById(1);
+            assertEquals(2, r.getMembersCount());
+            assertEquals(IOsmObject.TYPE_WAY, r.getMemberType(0));
+            assertEquals("outer", r.getMemberRole(loaded, 0));
+            assertEquals("multipolygon", r.getTag("type", loaded));
+            assertEquals("u2", r.getUser(loaded));
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void testWithoutUser() throws Exception {
+        TestStorage t = new TestStorage();
+        MemoryStorage st = t.st;
+        XMLReader rd = t.rd;
+        rd.updateNode(XMLReader.UPDATE_MODE.CREATE, 1, 52, 23, tags("place", "town"), null);
+        rd.updateNode(XMLReader.UPDATE_MODE.CREATE, 2, 54, 30, tags("place", "city"), "u1");
+        rd.updateWay(XMLReader.UPDATE_MODE.CREATE, 1, new long[] { 1, 2 }, tags("highway", "primary"), null);
+        rd.updateRelation(XMLReader.UPDATE_MODE.CREATE, 1, new long[] { 1 },
+                new byte[] { IOsmObject.TYPE_WAY }, new String[] { "outer" }, tags(), null);
+        st.finishLoading();
+
+        File f = File.createTempFile("osmemory", ".snapshot");
+        try {
+            st.saveSnapshot(f);
+            MemoryStorage loaded = MemoryStorage.loadSnapshot(f);
+
+            assertNull(loaded.getNodeById(1).getUser(loaded));
+            assertEquals("u1", loaded.getNodeById(2).getUser(loaded));
+            assertNull(loaded.getWayById(1).getUser(loaded));
+            assertNull(loaded.getRelationById(1).getUser(loaded));
+            assertEquals(TestStorage.dump(st), TestStorage.dump(loaded));
+        } finally {
+            f.delete();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.alex73.osmemory;
+
+import static org.alex73.osmemory.TestStorage.tags;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class StringPackTest {
+    @Test
+    public void testCodes() {
+        StringPack pack = new StringPack();
+        assertEquals(0, pack.getTagCode("a"));
+        assertEquals(1, pack.getTagCode(null));
+        assertEquals(2, pack.getTagCode("b"));
+        assertEquals(0, pack.getTagCode("a"));
+        assertEquals(1, pack.findTagCode(null));
+        assertNull(pack.getTagName(1));
+        assertEquals("b", pack.getTagName(2));
+
+        // search doesn't add string
+        assertEquals(StringPack.NOT_FOUND, pack.findTagCode("c"));
+        assertEquals(3, pack.size());
+    }
+
+    @Test
+    public void testAddAfterLoading() throws Exception {
+        TestStorage t = new TestStorage();
+        MemoryStorage st = t.node(1, 52, 23, "place", "town").finish();
+        StringPack pack = st.getTagsPack();
+        int size = pack.size();
+
+        t.rd.updateNode(XMLReader.UPDATE_MODE.MODIFY, 1, 52, 23, tags("place", "town", "name", "Brest"),
+                "u2");
+        assertEquals(size + 1, pack.size());
+        assertEquals(size, pack.findTagCode("name"));
+        assertEquals("Brest", st.getNodeById(1).getTag("name", st));
+        assertEquals("u2", st.getNodeById(1).getUser(st));
+
+        // strings are added by many threads while other threads read them
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            pool.submit(() -> IntStream.range(0, 20000).parallel().forEach(i -> {
+                int code = pack.getTagCode("key" + i);
+                assertEquals("key" + i, pack.getTagName(code));
+                assertEquals(code, pack.findTagCode("key" + i));
+                assertEquals(size, pack.findTagCode("name"));
+            })).get();
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(size + 1 + 20000, pack.size());
+        for (int i = 0; i < 20000; i++) {
+            assertEquals("key" + i, pack.getTagName(pack.findTagCode("key" + i)));
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.alex73.osmemory;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TagMatcherTest {
+    @Test
+    public void testTagBytes() throws Exception {
+        TestStorage t = new TestStorage();
+        t.way(1, new long[] { 1 }, "highway", "primary", "name", "\u041c\u0456\u043d\u0441\u043a");
+        t.way(2, new long[] { 1 }, "highway", "primary_link").way(3, new long[] { 1 }, "building", "yes");
+        MemoryStorage st = t.finish();
+        int highway = st.getTagsPack().findTagCode("highway");
+        IOsmWay w1 = st.getWayById(1);
+
+        assertTrue(w1.tagEquals(highway, "primary".getBytes("UTF-8")));
+        assertFalse(st.getWayById(2).tagEquals(highway, "primary".getBytes("UTF-8")));
+        assertTrue(st.getWayById(2).tagStartsWith(highway, "primary".getBytes("UTF-8")));
+        assertFalse(st.getWayById(3).tagStartsWith(highway, new byte[0]));
+
+        CharSequence chars = w1.getTagChars(highway);
+        assertEquals(7, chars.length());
+        assertEquals('r', chars.charAt(1));
+        assertEquals("ima", chars.subSequence(2, 5).toString());
+        CharSequence name = w1.getTagChars(st.getTagsPack().findTagCode("name"));
+        assertEquals(5, name.length());
+        assertEquals("\u041c\u0456\u043d\u0441\u043a", name.toString());
+        assertNull(w1.getTagChars(st.getTagsPack().findTagCode("building")));
+
+        TagMatcher matcher = TagMatcher.valueIn(st, "highway", "secondary", "primary");
+        assertTrue(matcher.test(w1));
+        assertFalse(matcher.test(st.getWayById(2)));
+        List<String> found = new ArrayList<>();
+        st.byTag("highway", TagMatcher.valueStartsWith(st, "highway", "primary"), o -> found.add(o
+                .getObjectCode()));
+        assertEquals(Arrays.asList("w1", "w2"), found);
+        assertFalse(TagMatcher.hasTag(st, "unknown").test(w1));
+    }
+}
@@ -0,0 +1,33 @@
+package org.alex73.osmemory;
+
+import static org.alex73.osmemory.TestStorage.tags;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TagValueIndexTest {
+    @Test
+    public void testTagValueIndex() throws Exception {
+        TestStorage t = new TestStorage();
+        t.node(1, 52, 23, "place", "town", "name", "Brest").node(2, 54, 30, "name", "Minsk");
+        t.way(1, new long[] { 1, 2 }, "name", "Road").way(2, new long[] { 2, 1 }, "highway", "primary");
+        MemoryStorage st = t.finish();
+
+        List<String> found = new ArrayList<>();
+        st.byTagValue("name", "Minsk", o -> found.add(o.getObjectCode()));
+        assertEquals(Arrays.asList("n2"), found);
+        found.clear();
+        st.byTagValue("name", "Vitebsk", o -> found.add(o.getObjectCode()));
+        assertTrue(found.isEmpty());
+
+        // index is dropped after update
+        t.rd.updateNode(XMLReader.UPDATE_MODE.DELETE, 1, 0, 0, null, null);
+        t.rd.updateWay(XMLReader.UPDATE_MODE.MODIFY, 2, new long[] { 2, 1 }, tags("name", "Minsk"), "u");
+        st.byTagValue("name", "Minsk", o -> found.add(o.getObjectCode()));
+        assertEquals(Arrays.asList("n2", "w2"), found);
+    }
+}
@@ -0,0 +1,83 @@
+package org.alex73.osmemory;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Encoding helpers for build binary test files.
+ */
+class TestBytes {
+    static byte[] varint(long value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+        return out.toByteArray();
+    }
+
+    /**
+     * Zigzag-encoded varint.
+     */
+    static byte[] signed(long v) {
+        return varint((v << 1) ^ (v >> 63));
+    }
+
+    static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] p : parts) {
+            out.write(p, 0, p.length);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] o5mDataset(int type, byte[] data) {
+        return concat(new byte[] { (byte) type }, varint(data.length), data);
+    }
+
+    /**
+     * o5m file with nodes, ways and relation in some parts between reset marks.
+     */
+    static byte[] o5mSample() throws Exception {
+        byte[] reset = new byte[] { (byte) 0xFF };
+        return concat(reset, o5mDataset(0xE0, "o5m2".getBytes("UTF-8")), o5mNodes(1, 300), reset,
+                o5mNodes(301, 500), reset, o5mNodes(501, 510), reset,
+                // way 22 has only unknown nodes
+                o5mDataset(0x11, concat(signed(20), varint(0), refs(signed(1), signed(1), signed(299)))),
+                o5mDataset(0x11, concat(signed(1), varint(0), refs(signed(0), signed(205)),
+                        varint(0), "highway\0primary\0".getBytes("UTF-8"))),
+                o5mDataset(0x11, concat(signed(1), varint(0), refs(signed(694)))), reset,
+                o5mDataset(0x11, concat(signed(25), varint(0), refs(signed(505)))), reset,
+                o5mDataset(0x12, concat(signed(30), varint(0), refs(signed(20), varint(0),
+                        "1outer\0".getBytes("UTF-8"), signed(3), varint(0), "0label\0".getBytes("UTF-8")),
+                        varint(0), "type\0multipolygon\0".getBytes("UTF-8"))),
+                new byte[] { (byte) 0xFE });
+    }
+
+    /**
+     * Reference section with length.
+     */
+    static byte[] refs(byte[]... refs) {
+        byte[] data = concat(refs);
+        return concat(varint(data.length), data);
+    }
+
+    /**
+     * Nodes from one part, i.e. with delta coding from zero. Each third node has tag.
+     */
+    static byte[] o5mNodes(long from, long to) throws Exception {
+        byte[] r = new byte[0];
+        long prevId = 0, prevLat = 0, prevLon = 0;
+        for (long id = from; id <= to; id++) {
+            long lat = 520000000 + id * 1000, lon = 230000000 + id * 1000;
+            byte[] tags = id % 3 == 0 ? concat(varint(0), ("name\0n" + id + "\0").getBytes("UTF-8"))
+                    : new byte[0];
+            r = concat(r, o5mDataset(0x10, concat(signed(id - prevId), varint(0), signed(lon - prevLon),
+                    signed(lat - prevLat), tags)));
+            prevId = id;
+            prevLat = lat;
+            prevLon = lon;
+        }
+        return r;
+    }
+}
@@ -0,0 +1,66 @@
+package org.alex73.osmemory;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Storage for tests, filled by updates through reader without crop box.
+ */
+class TestStorage {
+    final MemoryStorage st = new MemoryStorage();
+    final XMLReader rd = new XMLReader(st, -90, 90, -180, 180);
+
+    TestStorage node(long id, double lat, double lon, String... tags) {
+        rd.updateNode(XMLReader.UPDATE_MODE.CREATE, id, lat, lon, tags(tags), "u");
+        return this;
+    }
+
+    TestStorage way(long id, long[] nodes, String... tags) {
+        rd.updateWay(XMLReader.UPDATE_MODE.CREATE, id, nodes, tags(tags), "u");
+        return this;
+    }
+
+    TestStorage relation(long id, long[] memberIds, byte[] memberTypes, String[] memberRoles,
+            String... tags) {
+        rd.updateRelation(XMLReader.UPDATE_MODE.CREATE, id, memberIds, memberTypes, memberRoles, tags(tags),
+                "u");
+        return this;
+    }
+
+    MemoryStorage finish() throws Exception {
+        st.finishLoading();
+        return st;
+    }
+
+    static Map<String, String> tags(String... kv) {
+        Map<String, String> r = new TreeMap<>();
+        for (int i = 0; i < kv.length; i += 2) {
+            r.put(kv[i], kv[i + 1]);
+        }
+        return r;
+    }
+
+    /**
+     * Text of all objects in ID order, for compare storages read by different ways.
+     */
+    static String dump(MemoryStorage st) {
+        StringBuilder r = new StringBuilder();
+        st.nodeStream().sorted(Comparator.comparingLong(IOsmObject::getId)).forEach(n -> r.append(
+                n.getObjectCode()).append(' ').append(n.getLat()).append(' ').append(n.getLon()).append(' ')
+                .append(n.getUser(st)).append(' ').append(n.extractTags(st)).append('\n'));
+        st.wayStream().forEach(w -> r.append(w.getObjectCode()).append(' ').append(Arrays.toString(w
+                .getNodeIds())).append(' ').append(w.getUser(st)).append(' ').append(w.extractTags(st))
+                .append('\n'));
+        st.relationStream().forEach(rel -> {
+            r.append(rel.getObjectCode());
+            for (int i = 0; i < rel.getMembersCount(); i++) {
+                r.append(' ').append(rel.getMemberType(i)).append(':').append(rel.getMemberID(i)).append(':')
+                        .append(rel.getMemberRole(st, i));
+            }
+            r.append(' ').append(rel.getUser(st)).append(' ').append(rel.extractTags(st)).append('\n');
+        });
+        return r.toString();
+    }
+}
@@ -0,0 +1,84 @@
+package org.alex73.osmemory;
+
+import static org.alex73.osmemory.TestBytes.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Test;
+
+public class ValuePackTest {
+    @Test
+    public void testShared() throws Exception {
+        TestStorage t = new TestStorage();
+        t.way(1, new long[] { 1 }, "highway", "primary").way(2, new long[] { 1 }, "highway", "primary");
+        MemoryStorage st = t.finish();
+        int highway = st.getTagsPack().findTagCode("highway");
+
+        // the same values are shared
+        byte[] v = ((OsmBase) st.getWayById(1)).getTagBytes(highway);
+        assertSame(v, st.getValuesPack().find(highway, "primary".getBytes("UTF-8")));
+        assertSame(v, ((OsmBase) st.getWayById(2)).getTagBytes(highway));
+    }
+
+    @Test
+    public void testManyValues() throws Exception {
+        ValuePack pack = new ValuePack();
+        byte[] yes = pack.intern(2, "yes".getBytes("UTF-8"));
+        byte[] first = pack.intern(1, "v0".getBytes("UTF-8"));
+        for (int i = 1; i < ValuePack.MAX_VALUES_PER_KEY; i++) {
+            pack.intern(1, ("v" + i).getBytes("UTF-8"));
+        }
+        byte[] buffer = "xv0x".getBytes("UTF-8");
+        assertSame(first, pack.intern(1, buffer, 1, 2));
+        assertSame(first, pack.find(1, "v0".getBytes("UTF-8")));
+
+        // dictionary of key is dropped after too many values
+        byte[] last = ("v" + ValuePack.MAX_VALUES_PER_KEY).getBytes("UTF-8");
+        assertSame(last, pack.intern(1, last));
+        assertNull(pack.find(1, "v0".getBytes("UTF-8")));
+        byte[] copy = pack.intern(1, buffer, 1, 2);
+        assertNotSame(first, copy);
+        assertArrayEquals(first, copy);
+        assertNotSame(copy, pack.intern(1, buffer, 1, 2));
+
+        // other keys are still shared
+        assertSame(yes, pack.intern(2, "yes".getBytes("UTF-8")));
+        assertSame(yes, pack.find(2, "yes".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testSharedAfterChanges() throws Exception {
+        TestStorage t = new TestStorage();
+        t.node(1, 52, 23).way(1, new long[] { 1 }, "highway", "primary").way(2, new long[] { 1 }, "highway",
+                "primary");
+        MemoryStorage st = t.finish();
+        int highway = st.getTagsPack().findTagCode("highway");
+
+        // way 1 gets new value, ways 3 and 4 are created with new and existing values
+        byte[] o5c = concat(new byte[] { (byte) 0xFF }, o5mDataset(0xE0, "o5c2".getBytes("UTF-8")),
+                o5mDataset(0x11, concat(signed(1), varint(0), refs(signed(1)), varint(0),
+                        "highway\0secondary\0".getBytes("UTF-8"))),
+                o5mDataset(0x11, concat(signed(2), varint(0), refs(signed(0)), varint(0),
+                        "highway\0secondary\0".getBytes("UTF-8"))),
+                o5mDataset(0x11, concat(signed(1), varint(0), refs(signed(0)), varint(0),
+                        "highway\0primary\0".getBytes("UTF-8"))),
+                new byte[] { (byte) 0xFE });
+        new O5MReader(st, -90, 90, -180, 180).applyChanges(new ByteArrayInputStream(o5c));
+
+        byte[] secondary = ((OsmBase) st.getWayById(1)).getTagBytes(highway);
+        assertArrayEquals("secondary".getBytes("UTF-8"), secondary);
+        assertSame(secondary, ((OsmBase) st.getWayById(3)).getTagBytes(highway));
+        assertSame(secondary, st.getValuesPack().find(highway, "secondary".getBytes("UTF-8")));
+        assertSame(((OsmBase) st.getWayById(2)).getTagBytes(highway),
+                ((OsmBase) st.getWayById(4)).getTagBytes(highway));
+
+        // values added by updates after loading are shared too
+        t.rd.updateWay(XMLReader.UPDATE_MODE.CREATE, 5, new long[] { 1 },
+                TestStorage.tags("highway", "tertiary"), "u");
+        t.rd.updateWay(XMLReader.UPDATE_MODE.CREATE, 6, new long[] { 1 },
+                TestStorage.tags("highway", "tertiary"), "u");
+        assertSame(((OsmBase) st.getWayById(5)).getTagBytes(highway),
+                ((OsmBase) st.getWayById(6)).getTagBytes(highway));
+    }
+}
@@ -0,0 +1,115 @@
+package org.alex73.osmemory;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+import osm.xmldatatypes.Node;
+import osm.xmldatatypes.Relation;
+import osm.xmldatatypes.Way;
+
+public class XMLDriverTest {
+    @Test
+    public void testOsmChange() throws Exception {
+        TestStorage t = new TestStorage();
+        MemoryStorage st = t.node(1, 52, 23).node(2, 52, 24, "place", "town").finish();
+        XMLReader rd = t.rd;
+
+        String xml = "<osmChange version='0.6'>"
+                + "<create><node id='3' lat='53' lon='27' user='v'><tag k='place' v='city'/></node>"
+                + "<way id='5' user='v'><nd ref='1'/><nd ref='3'/><tag k='highway' v='primary'/></way>"
+                + "</create>"
+                + "<modify><node id='1' lat='52.5' lon='23'/></modify>"
+                + "<delete><node id='2' lat='0' lon='0'/></delete>"
+                + "<create><relation id='7'><member type='way' ref='5' role='outer'/></relation></create>"
+                + "</osmChange>";
+        List<String> log = new ArrayList<>();
+        new XMLDriver(rd).applyOsmChange(new ByteArrayInputStream(xml.getBytes("UTF-8")),
+                new XMLDriver.IApplyChangeCallback() {
+                    public void beforeUpdateNode(XMLReader.UPDATE_MODE mode, Node node) {
+                        log.add(mode + " n" + node.getId());
+                    }
+
+                    public void afterUpdateNode(XMLReader.UPDATE_MODE mode, Node node) {
+                    }
+
+                    public void beforeUpdateWay(XMLReader.UPDATE_MODE mode, Way way) {
+                        log.add(mode + " w" + way.getId());
+                    }
+
+                    public void afterUpdateWay(XMLReader.UPDATE_MODE mode, Way way) {
+                    }
+
+                    public void beforeUpdateRelation(XMLReader.UPDATE_MODE mode, Relation r) {
+                    }
+
+                    public void afterUpdateRelation(XMLReader.UPDATE_MODE mode, Relation r) {
+                        log.add(mode + " r" + r.getId());
+                    }
+                });
+        assertEquals(Arrays.asList("CREATE n3", "CREATE w5", "MODIFY n1", "DELETE n2", "CREATE r7"), log);
+        assertEquals("city", st.getNodeById(3).getTag("place", st));
+        assertEquals(525000000, st.getNodeById(1).getLat());
+        assertNull(st.getNodeById(2));
+        assertArrayEquals(new long[] { 1, 3 }, st.getWayById(5).getNodeIds());
+        assertEquals("outer", st.getRelationById(7).getMemberRole(st, 0));
+    }
+
+    @Test
+    public void testScannerAndSAX() throws Exception {
+        String body = "<osm>"
+                + "<node id='1' lat='52.1' lon='27.1' user='simple'/>"
+                + "<node id='2' lat='52.2' lon='27.2' user='\u0410\u043b\u0435\u0441\u044c'>"
+                + "<tag k='name' v='\u041c\u0456\u043d\u0441\u043a &amp; &lt;'/></node>"
+                + "<node id='3' lat='52.3' lon='27.3'><tag k='place' v='town'/></node>"
+                + "<node id='4' lat='10' lon='10' user='outside'><tag k='place' v='city'/></node>"
+                + "<way id='5' user='w'><nd ref='1'/><nd ref='2'/><tag k='highway' v='primary'/></way>"
+                + "<way id='6'><nd ref='3'/></way>"
+                + "<relation id='7' user='r'><member type='way' ref='5' role='outer'/>"
+                + "<member type='node' ref='3' role=''/><tag k='type' v='multipolygon'/></relation>"
+                + "</osm>";
+        Envelope crop = new Envelope(20, 30, 50, 60);
+        File f = File.createTempFile("osmemory", ".osm");
+        try {
+            Files.write(f.toPath(), ("<?xml version='1.0' encoding='UTF-8'?>" + body).getBytes("UTF-8"));
+            MemoryStorage scanner = new XMLReader(crop).read(f);
+            // DTD and UTF-16 are read by SAX parser
+            Files.write(f.toPath(), ("<?xml version='1.0' encoding='UTF-8'?><!DOCTYPE osm>" + body)
+                    .getBytes("UTF-8"));
+            MemoryStorage dtd = new XMLReader(crop).read(f);
+            Files.write(f.toPath(), ("<?xml version='1.0' encoding='UTF-16'?>" + body).getBytes("UTF-16"));
+            MemoryStorage utf16 = new XMLReader(crop).read(f);
+
+            assertEquals(3, scanner.nodeStream().count());
+            assertEquals("\u0410\u043b\u0435\u0441\u044c", scanner.getNodeById(2).getUser(scanner));
+            assertEquals("\u041c\u0456\u043d\u0441\u043a & <",
+                    scanner.getNodeById(2).getTag("name", scanner));
+            assertNull(scanner.getNodeById(3).getUser(scanner));
+            assertEquals("r", scanner.getRelationById(7).getUser(scanner));
+            assertEquals(TestStorage.dump(scanner), TestStorage.dump(dtd));
+            assertEquals(TestStorage.dump(scanner), TestStorage.dump(utf16));
+
+            // users of nodes without tags and nodes outside of crop box are not stored
+            for (MemoryStorage st : Arrays.asList(scanner, dtd, utf16)) {
+                assertEquals(StringPack.NOT_FOUND, st.getUsersPack().findTagCode("simple"));
+                assertEquals(StringPack.NOT_FOUND, st.getUsersPack().findTagCode("outside"));
+                assertNotEquals(StringPack.NOT_FOUND, st.getUsersPack().findTagCode("w"));
+                // null is not a tag key or value
+                assertEquals(StringPack.NOT_FOUND, st.getTagsPack().findTagCode(null));
+                assertEquals(scanner.getTagsPack().size(), st.getTagsPack().size());
+                assertEquals(scanner.getTagsPack().getTagCode("place"), st.getTagsPack().getTagCode("place"));
+            }
+        } finally {
+            f.delete();
+        }
+    }
+}
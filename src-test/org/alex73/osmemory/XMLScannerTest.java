@@ -0,0 +1,56 @@
+package org.alex73.osmemory;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class XMLScannerTest {
+    @Test
+    public void testXmlScanner() throws Exception {
+        File f = File.createTempFile("osmemory", ".osm");
+        f.deleteOnExit();
+        String xml = "<?xml version='1.0' encoding='UTF-8'?>\r\n<!-- <node id='9'/> -->\n<osm>"
+                + "<node id = '1' lat='52.1' lon=\"27.12345678\"/>"
+                + "<node id='2' lat='-0.0000001' lon='1e-5' user='&#x410;&amp;'>"
+                + "<tag k='name' v='a\tb&lt;&#10;c'/></node>"
+                + "<way id='3'><nd ref='1'/><nd ref='2'/><tag v='yes' k='building'/></way>"
+                + "<relation id='4'><member type='way' ref='3' role='outer'/><tag k='type' v='x'/></relation>"
+                + "</osm>";
+        Files.write(f.toPath(), xml.getBytes("UTF-8"));
+        MemoryStorage st = new XMLReader().read(f);
+
+        IOsmNode n1 = st.getNodeById(1);
+        assertEquals(521000000, n1.getLat());
+        assertEquals(271234568, n1.getLon());
+        IOsmNode n2 = st.getNodeById(2);
+        assertEquals(-1, n2.getLat());
+        assertEquals(100, n2.getLon());
+        assertEquals("\u0410&", n2.getUser(st));
+        assertEquals("a b<\nc", n2.getTag("name", st));
+        assertArrayEquals(new long[] { 1, 2 }, st.getWayById(3).getNodeIds());
+        assertEquals("yes", st.getWayById(3).getTag("building", st));
+        assertEquals("outer", st.getRelationById(4).getMemberRole(st, 0));
+        assertNull(st.getNodeById(9));
+
+        assertEquals(-900000000, XMLScanner.coordinate("-90".getBytes("UTF-8"), 0, 3));
+        assertEquals(5, XMLScanner.coordinate("0.00000045".getBytes("UTF-8"), 0, 10));
+    }
+
+    @Test
+    public void testMemberWithoutType() throws Exception {
+        File f = File.createTempFile("osmemory", ".osm");
+        f.deleteOnExit();
+        String xml = "<?xml version='1.0' encoding='UTF-8'?><osm>"
+                + "<relation id='4'><member ref='3' role='outer'/></relation></osm>";
+        Files.write(f.toPath(), xml.getBytes("UTF-8"));
+        try {
+            new XMLReader().read(f);
+            fail();
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("'type'"));
+        }
+    }
+}
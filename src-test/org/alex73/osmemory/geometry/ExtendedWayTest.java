@@ -0,0 +1,39 @@
+package org.alex73.osmemory.geometry;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+
+import org.alex73.osmemory.MemoryStorage;
+import org.alex73.osmemory.XMLReader;
+import org.junit.Test;
+
+public class ExtendedWayTest {
+    @Test
+    public void testViewAfterUpdate() throws Exception {
+        MemoryStorage st = new MemoryStorage();
+        XMLReader rd = new XMLReader(st, -90, 90, -180, 180);
+        for (int i = 1; i <= 4; i++) {
+            rd.updateNode(XMLReader.UPDATE_MODE.CREATE, i, i, 10 + i, Collections.emptyMap(), "u");
+        }
+        rd.updateWay(XMLReader.UPDATE_MODE.CREATE, 1, new long[] { 3, 4 }, Collections.emptyMap(), "u");
+        st.resolveWayNodes();
+        ExtendedWay w = new ExtendedWay(st.getWayById(1), st);
+        assertTrue(w.isAllPointsDefined());
+
+        // simple nodes before way nodes are removed, i.e. positions are shifted and array is shorter
+        rd.updateNode(XMLReader.UPDATE_MODE.DELETE, 1, 0, 0, null, null);
+        rd.updateNode(XMLReader.UPDATE_MODE.DELETE, 2, 0, 0, null, null);
+        assertEquals(30000000, w.getBoundingBox().minLat);
+        assertEquals(40000000, w.getBoundingBox().maxLat);
+        assertEquals(13, w.getLine().getCoordinateN(0).x, 1e-7);
+        assertEquals(14, w.getLine().getCoordinateN(1).x, 1e-7);
+        assertTrue(w.isAllPointsDefined());
+
+        // view got before update, but used after, reads current nodes
+        ExtendedWay w2 = new ExtendedWay(st.getWayById(1), st);
+        rd.updateNode(XMLReader.UPDATE_MODE.DELETE, 3, 0, 0, null, null);
+        assertFalse(w2.isAllPointsDefined());
+        assertEquals(40000000, w2.getBoundingBox().minLat);
+    }
+}
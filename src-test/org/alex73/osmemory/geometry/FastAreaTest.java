@@ -19,9 +19,11 @@ public class FastAreaTest {
         assertTrue(fastArea.coversNode(point(1, 2)));
         assertTrue(fastArea.coversNode(point(1.5, 1.5)));
         assertTrue(fastArea.coversNode(point(1, 1.5)));
+        assertTrue(fastArea.coversPoint(15000000, 15000000));
+        assertFalse(fastArea.coversPoint(0, 0));
     }
 
     OsmNode point(double x, double y) {
-        return new OsmNode(0, 0, (int) (y / OsmNode.DIVIDER), (int) (x / OsmNode.DIVIDER), (short) 0);
+        return new OsmNode(0, 0, (int) (y / OsmNode.DIVIDER), (int) (x / OsmNode.DIVIDER), 0);
     }
 }
@@ -61,6 +61,14 @@ public class BaseReader {
         }
     }
 
+    /**
+     * Build reverse index of ways for nodes and relations for members at the end of loading. Without this
+     * option it's built on the first usage.
+     */
+    public void setBuildReverseIndex(boolean build) {
+        storage.reverseIndexOnLoad = build;
+    }
+
     /**
      * Check if node inside crop box.
      */
@@ -0,0 +1,72 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.util.TreeMap;
+
+/**
+ * Changes of objects, collected for apply to storage by {@link MemoryStorage#applyChanges(ChangeBatch)}.
+ * Changes are sorted by ID, so storage arrays are rebuilt by one merge pass instead of shift of arrays tails
+ * for each changed object. Later change of the same object replaces previous.
+ */
+class ChangeBatch {
+    // new versions of objects by ID, or null for removed objects. Node without tags will be simple node.
+    final TreeMap<Long, OsmNode> nodes = new TreeMap<>();
+    final TreeMap<Long, OsmWay> ways = new TreeMap<>();
+    final TreeMap<Long, IOsmRelation> relations = new TreeMap<>();
+
+    void addNode(OsmNode n) {
+        nodes.put(n.getId(), n);
+    }
+
+    void addSimpleNode(long id, int lat, int lon) {
+        nodes.put(id, new OsmNode(id, 0, lat, lon, 0));
+    }
+
+    void removeNode(long id) {
+        nodes.put(id, null);
+    }
+
+    void addWay(OsmWay w) {
+        ways.put(w.getId(), w);
+    }
+
+    void removeWay(long id) {
+        ways.put(id, null);
+    }
+
+    void addRelation(IOsmRelation r) {
+        relations.put(r.getId(), r);
+    }
+
+    void removeRelation(long id) {
+        relations.put(id, null);
+    }
+
+    boolean isEmpty() {
+        return nodes.isEmpty() && ways.isEmpty() && relations.isEmpty();
+    }
+
+    void clear() {
+        nodes.clear();
+        ways.clear();
+        relations.clear();
+    }
+}
@@ -0,0 +1,140 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of string codes from {@link StringPack}. Codes are stored in short[] while they are less
+ * than Short.MAX_VALUE, i.e. for most of extracts, and array is widened to int[] on the first bigger code.
+ */
+class CodeArray {
+    protected short[] narrow;
+    protected int[] wide;
+
+    CodeArray(int length) {
+        narrow = new short[length];
+    }
+
+    CodeArray(short[] narrow) {
+        this.narrow = narrow;
+    }
+
+    CodeArray(int[] wide) {
+        this.wide = wide;
+    }
+
+    int get(int index) {
+        return wide == null ? narrow[index] : wide[index];
+    }
+
+    void set(int index, int code) {
+        if (wide == null) {
+            if (code <= Short.MAX_VALUE) {
+                narrow[index] = (short) code;
+                return;
+            }
+            widen();
+        }
+        wide[index] = code;
+    }
+
+    int length() {
+        return wide == null ? narrow.length : wide.length;
+    }
+
+    boolean isWide() {
+        return wide != null;
+    }
+
+    /**
+     * Change array length like Arrays.copyOf.
+     */
+    void resize(int newLength) {
+        if (wide == null) {
+            narrow = Arrays.copyOf(narrow, newLength);
+        } else {
+            wide = Arrays.copyOf(wide, newLength);
+        }
+    }
+
+    /**
+     * Copy elements inside array like System.arraycopy.
+     */
+    void move(int from, int to, int count) {
+        if (wide == null) {
+            System.arraycopy(narrow, from, narrow, to, count);
+        } else {
+            System.arraycopy(wide, from, wide, to, count);
+        }
+    }
+
+    /**
+     * Copy elements from other array like System.arraycopy.
+     */
+    void copyFrom(CodeArray src, int srcPos, int destPos, int count) {
+        if (src.wide != null && wide == null) {
+            widen();
+        }
+        if (wide == null) {
+            System.arraycopy(src.narrow, srcPos, narrow, destPos, count);
+        } else if (src.wide != null) {
+            System.arraycopy(src.wide, srcPos, wide, destPos, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                wide[destPos + i] = src.narrow[srcPos + i];
+            }
+        }
+    }
+
+    /**
+     * Copy elements from codes array, widen if required.
+     */
+    void copyFrom(int[] src, int destPos, int count) {
+        for (int i = 0; i < count; i++) {
+            set(destPos + i, src[i]);
+        }
+    }
+
+    /**
+     * Copy elements into codes array.
+     */
+    void copyTo(int srcPos, int[] dest, int count) {
+        if (wide == null) {
+            for (int i = 0; i < count; i++) {
+                dest[i] = narrow[srcPos + i];
+            }
+        } else {
+            System.arraycopy(wide, srcPos, dest, 0, count);
+        }
+    }
+
+    private void widen() {
+        wide = new int[narrow.length];
+        for (int i = 0; i < narrow.length; i++) {
+            wide[i] = narrow[i];
+        }
+        narrow = null;
+    }
+
+    long getMemorySize() {
+        return wide == null ? 2L * narrow.length : 4L * wide.length;
+    }
+}
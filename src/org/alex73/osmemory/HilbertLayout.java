@@ -0,0 +1,111 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Copy of simple nodes coordinates sorted along Hilbert curve, i.e. nodes near each other are placed near
+ * each other in memory. Place of node in these arrays is called 'slot'.
+ *
+ * Slots are grouped into blocks with bounding box for each block, so nodes in area can be found by sequential
+ * read of a few blocks.
+ */
+class HilbertLayout {
+    static final int BLOCK_SIZE = 256;
+
+    final int[] lats, lons;
+    // simple node position for each slot
+    final int[] positions;
+    // slot for each simple node position
+    final int[] slots;
+    final int[] blockMinLat, blockMaxLat, blockMinLon, blockMaxLon;
+
+    HilbertLayout(MemoryStorage storage) {
+        int count = storage.simpleNodeCount;
+        int[] srcLats = storage.simpleNodeLats;
+        int[] srcLons = storage.simpleNodeLons;
+        long[] keys = new long[count];
+        IntStream.range(0, count).parallel().forEach(i -> {
+            keys[i] = (SpatialIndex.hilbert(srcLats[i], srcLons[i]) << 31) | i;
+        });
+        Arrays.parallelSort(keys);
+
+        lats = new int[count];
+        lons = new int[count];
+        positions = new int[count];
+        slots = new int[count];
+        IntStream.range(0, count).parallel().forEach(s -> {
+            int p = (int) (keys[s] & 0x7FFFFFFF);
+            positions[s] = p;
+            slots[p] = s;
+            lats[s] = srcLats[p];
+            lons[s] = srcLons[p];
+        });
+
+        int blocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        blockMinLat = new int[blocks];
+        blockMaxLat = new int[blocks];
+        blockMinLon = new int[blocks];
+        blockMaxLon = new int[blocks];
+        IntStream.range(0, blocks).parallel().forEach(b -> {
+            int minLat = Integer.MAX_VALUE, maxLat = Integer.MIN_VALUE;
+            int minLon = Integer.MAX_VALUE, maxLon = Integer.MIN_VALUE;
+            int to = Math.min(count, (b + 1) * BLOCK_SIZE);
+            for (int s = b * BLOCK_SIZE; s < to; s++) {
+                minLat = Math.min(minLat, lats[s]);
+                maxLat = Math.max(maxLat, lats[s]);
+                minLon = Math.min(minLon, lons[s]);
+                maxLon = Math.max(maxLon, lons[s]);
+            }
+            blockMinLat[b] = minLat;
+            blockMaxLat[b] = maxLat;
+            blockMinLon[b] = minLon;
+            blockMaxLon[b] = maxLon;
+        });
+    }
+
+    /**
+     * Find slots of all nodes inside box.
+     */
+    void query(int minLat, int maxLat, int minLon, int maxLon, IntConsumer slotConsumer) {
+        for (int b = 0; b < blockMinLat.length; b++) {
+            if (blockMinLat[b] > maxLat || blockMaxLat[b] < minLat) {
+                continue;
+            }
+            if (blockMinLon[b] > maxLon || blockMaxLon[b] < minLon) {
+                continue;
+            }
+            int to = Math.min(lats.length, (b + 1) * BLOCK_SIZE);
+            for (int s = b * BLOCK_SIZE; s < to; s++) {
+                int lat = lats[s], lon = lons[s];
+                if (lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon) {
+                    slotConsumer.accept(s);
+                }
+            }
+        }
+    }
+
+    long getMemorySize() {
+        return 4L * (lats.length + lons.length + positions.length + slots.length) + 16L * blockMinLat.length;
+    }
+}
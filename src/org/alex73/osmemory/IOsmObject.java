@@ -55,28 +55,45 @@ public interface IOsmObject {
     /**
      * Check if object has tag.
      */
-    boolean hasTag(short tagKey);
+    boolean hasTag(int tagKey);
 
     /**
      * Get tags list.
      */
-    short[] getTags();
+    int[] getTags();
 
     /**
-     * Check if object has tag. This operation is much slower than {@link #hasTag(short)}.
+     * Check if object has tag. This operation is much slower than {@link #hasTag(int)}.
      */
     boolean hasTag(String tagName, MemoryStorage storage);
 
     /**
      * Get tag value.
      */
-    String getTag(short tagKey);
+    String getTag(int tagKey);
 
     /**
-     * Get tag value. This operation is much slower than {@link #getTag(short)}.
+     * Get tag value. This operation is much slower than {@link #getTag(int)}.
      */
     String getTag(String tagName, MemoryStorage storage);
 
+    /**
+     * Compare tag value with UTF-8 bytes without String creation. Returns false if there is no such tag.
+     */
+    boolean tagEquals(int tagKey, byte[] utf8Value);
+
+    /**
+     * Check if tag value starts with UTF-8 bytes without String creation. Returns false if there is no such
+     * tag.
+     */
+    boolean tagStartsWith(int tagKey, byte[] utf8Prefix);
+
+    /**
+     * Get tag value as chars view of stored bytes, or null if there is no such tag. It's cheaper than
+     * {@link #getTag(int)} for ASCII values, that are most of values.
+     */
+    CharSequence getTagChars(int tagKey);
+
     Map<String, String> extractTags(MemoryStorage storage);
 
     /**
@@ -87,7 +104,7 @@ public interface IOsmObject {
     /**
      * Get user code.
      */
-    short getUser();
+    int getUser();
 
     /**
      * Get user name.
@@ -24,7 +24,18 @@ package org.alex73.osmemory;
  */
 public interface IOsmWay extends IOsmObject {
     /**
-     * Get nodes IDs.
+     * Get nodes IDs. This method creates new array on each call, i.e. {@link #getNodesCount()} and
+     * {@link #getNodeId(int)} should be used instead for performance.
      */
     long[] getNodeIds();
+
+    /**
+     * Get nodes count.
+     */
+    int getNodesCount();
+
+    /**
+     * Get node ID by index.
+     */
+    long getNodeId(int index);
 }
@@ -0,0 +1,79 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Spliterator over range of indexes in storage arrays. Object for index is created only when it's processed.
+ * Split is just division of range by half, so parallel streams are balanced for any size.
+ */
+class IndexSpliterator<T> implements Spliterator<T> {
+    private final IntFunction<T> creator;
+    private int from;
+    private final int to;
+
+    IndexSpliterator(int from, int to, IntFunction<T> creator) {
+        this.from = from;
+        this.to = to;
+        this.creator = creator;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (from >= to) {
+            return false;
+        }
+        action.accept(creator.apply(from++));
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        int i = from;
+        from = to;
+        for (; i < to; i++) {
+            action.accept(creator.apply(i));
+        }
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        int mid = (from + to) >>> 1;
+        if (mid <= from) {
+            return null;
+        }
+        IndexSpliterator<T> prefix = new IndexSpliterator<>(from, mid, creator);
+        from = mid;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return to - from;
+    }
+
+    @Override
+    public int characteristics() {
+        return SIZED | SUBSIZED | ORDERED | IMMUTABLE | NONNULL;
+    }
+}
@@ -19,42 +19,110 @@
 
 package org.alex73.osmemory;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
 import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.alex73.osmemory.geometry.BoundingBox;
+
 /**
  * Storage for all nodes, ways, relations.
  */
 public class MemoryStorage {
     static final Pattern RE_OBJECT_CODE = Pattern.compile("([nwr])([0-9]+)");
 
-    // notes with tags sorted list
-    protected final List<IOsmNode> nodes = new ArrayList<>();
-    // ways sorted list
-    protected final List<IOsmWay> ways = new ArrayList<>();
+    /**
+     * Node position for not existing node. See {@link #getNodePosition(long)}.
+     */
+    public static final int NODE_POSITION_MISSING = -1;
+
+    // nodes with tags, sorted by id and stored by columns
+    protected long[] nodeIds = new long[64 * 1024];
+    protected int[] nodeLats = new int[64 * 1024];
+    protected int[] nodeLons = new int[64 * 1024];
+    protected CodeArray nodeUsers = new CodeArray(64 * 1024);
+    protected int nodeCount;
+    final TagsStore nodeTags = new TagsStore();
+    // ways sorted by id and stored by columns
+    protected long[] wayIds = new long[64 * 1024];
+    protected CodeArray wayUsers = new CodeArray(64 * 1024);
+    protected int wayCount;
+    final TagsStore wayTags = new TagsStore();
+    // Node IDs of way i are in wayNodes from wayNodesOffsets[i], count wayNodesCounts[i]. After loading, all
+    // node IDs are placed in the ways order, like in compressed sparse row. Node IDs of updated ways are added
+    // to the end, and previous place becomes garbage until compaction.
+    protected int[] wayNodesOffsets = new int[64 * 1024];
+    protected int[] wayNodesCounts = new int[64 * 1024];
+    protected long[] wayNodes = new long[512 * 1024];
+    protected int wayNodesSize;
+    protected int wayNodesGarbage;
+    // node positions for each element of wayNodes, or null if not resolved yet
+    protected int[] wayNodePositions;
     // relations sorted list
     protected final List<IOsmRelation> relations = new ArrayList<>();
+    // inverted indexes of tag keys, or null if not built
+    protected TagKeyIndex nodeTagIndex, wayTagIndex, relationTagIndex;
+    // indexes of tag values, created on first usage of key
+    protected final Map<Integer, TagValueIndex> tagValueIndexes = new ConcurrentHashMap<>();
+    // spatial index, or null if not built
+    protected SpatialIndex spatialIndex;
+    // simple nodes in Hilbert curve order, or null if not built
+    protected HilbertLayout hilbertLayout;
+    // parents of nodes, ways and relations, or null if not built
+    protected ReverseIndex reverseIndex;
+    // build reverse index in finishLoading()
+    protected boolean reverseIndexOnLoad;
 
     // simple nodes, i.e. without tags
-    protected long[] simpleNodeIds = new long[4 * 1024 * 1024];
-    protected int[] simpleNodeLats = new int[4 * 1024 * 1024];
-    protected int[] simpleNodeLons = new int[4 * 1024 * 1024];
+    protected long[] simpleNodeIds;
+    protected int[] simpleNodeLats;
+    protected int[] simpleNodeLons;
     protected int simpleNodeCount;
 
-    private final StringPack tagsPack = new StringPack();
-    private final StringPack relationRolesPack = new StringPack();
-    private final StringPack usersPack = new StringPack();
+    private final StringPack tagsPack;
+    private final StringPack relationRolesPack;
+    private final StringPack usersPack;
+    private final ValuePack valuesPack;
 
     private long loadingStartTime, loadingFinishTime;
 
     public MemoryStorage() {
+        this(new StringPack(), new StringPack(), new StringPack(), new ValuePack(), 4 * 1024 * 1024);
+    }
+
+    /**
+     * Storage for part of data while parallel loading. It shares string packs with main storage.
+     */
+    MemoryStorage(MemoryStorage main) {
+        this(main.tagsPack, main.relationRolesPack, main.usersPack, main.valuesPack, 64 * 1024);
+    }
+
+    private MemoryStorage(StringPack tagsPack, StringPack relationRolesPack, StringPack usersPack,
+            ValuePack valuesPack, int simpleNodesCapacity) {
         loadingStartTime = System.currentTimeMillis();
+        this.tagsPack = tagsPack;
+        this.relationRolesPack = relationRolesPack;
+        this.usersPack = usersPack;
+        this.valuesPack = valuesPack;
+        simpleNodeIds = new long[simpleNodesCapacity];
+        simpleNodeLats = new int[simpleNodesCapacity];
+        simpleNodeLons = new int[simpleNodesCapacity];
     }
 
     /**
@@ -71,16 +139,16 @@ public class MemoryStorage {
             prev = id;
         }
         prev = 0;
-        for (int i = 0; i < nodes.size(); i++) {
-            long id = nodes.get(i).getId();
+        for (int i = 0; i < nodeCount; i++) {
+            long id = nodeIds[i];
             if (id <= prev) {
                 throw new Exception("Nodes must be ordered by ID");
             }
             prev = id;
         }
         prev = 0;
-        for (int i = 0; i < ways.size(); i++) {
-            long id = ways.get(i).getId();
+        for (int i = 0; i < wayCount; i++) {
+            long id = wayIds[i];
             if (id <= prev) {
                 throw new Exception("Ways must be ordered by ID");
             }
@@ -94,9 +162,26 @@ public class MemoryStorage {
             }
             prev = id;
         }
+        if (reverseIndexOnLoad) {
+            buildReverseIndex();
+        }
         loadingFinishTime = System.currentTimeMillis();
     }
 
+    /**
+     * Save storage into binary snapshot file, that can be loaded much faster than source data.
+     */
+    public void saveSnapshot(File file) throws IOException {
+        StorageSnapshot.save(this, file);
+    }
+
+    /**
+     * Load storage from snapshot file created by {@link #saveSnapshot(File)}.
+     */
+    public static MemoryStorage loadSnapshot(File file) throws Exception {
+        return StorageSnapshot.load(file);
+    }
+
     public StringPack getTagsPack() {
         return tagsPack;
     }
@@ -109,6 +194,13 @@ public class MemoryStorage {
         return usersPack;
     }
 
+    /**
+     * Dictionaries of tag values, for share value arrays between objects.
+     */
+    ValuePack getValuesPack() {
+        return valuesPack;
+    }
+
     private static <T extends IOsmObject> T getById(List<T> en, long id) {
         int i = binarySearch(en, id);
         return i < 0 ? null : en.get(i);
@@ -195,23 +287,405 @@ public class MemoryStorage {
         int pos = Arrays.binarySearch(simpleNodeIds, 0, simpleNodeCount, id);
         if (pos >= 0) {
             return new OsmSimpleNode(this, pos);
+        }
+        pos = Arrays.binarySearch(nodeIds, 0, nodeCount, id);
+        if (pos >= 0) {
+            return new OsmNode(this, pos);
+        }
+        return null;
+    }
+
+    /**
+     * Get node position in storage: index of simple node for simple nodes, -2-index for nodes with tags, or
+     * NODE_POSITION_MISSING if there is no such node. Positions are valid only until storage update.
+     */
+    public int getNodePosition(long id) {
+        int pos = Arrays.binarySearch(simpleNodeIds, 0, simpleNodeCount, id);
+        if (pos >= 0) {
+            return pos;
+        }
+        pos = Arrays.binarySearch(nodeIds, 0, nodeCount, id);
+        if (pos >= 0) {
+            return -2 - pos;
+        }
+        return NODE_POSITION_MISSING;
+    }
+
+    /**
+     * Get node latitude without node object creation. Returns Integer.MIN_VALUE if node not exist.
+     */
+    public int lookupLat(long id) {
+        int pos = Arrays.binarySearch(simpleNodeIds, 0, simpleNodeCount, id);
+        if (pos >= 0) {
+            return simpleNodeLats[pos];
+        }
+        pos = Arrays.binarySearch(nodeIds, 0, nodeCount, id);
+        return pos >= 0 ? nodeLats[pos] : Integer.MIN_VALUE;
+    }
+
+    /**
+     * Get node longitude without node object creation. Returns Integer.MIN_VALUE if node not exist.
+     */
+    public int lookupLon(long id) {
+        int pos = Arrays.binarySearch(simpleNodeIds, 0, simpleNodeCount, id);
+        if (pos >= 0) {
+            return simpleNodeLons[pos];
+        }
+        pos = Arrays.binarySearch(nodeIds, 0, nodeCount, id);
+        return pos >= 0 ? nodeLons[pos] : Integer.MIN_VALUE;
+    }
+
+    /**
+     * Create cursor for read nodes without node objects creation.
+     */
+    public NodeCursor newNodeCursor() {
+        return new NodeCursor(this);
+    }
+
+    public long getNodeIdByPosition(int position) {
+        return position >= 0 ? simpleNodeIds[position] : nodeIds[-2 - position];
+    }
+
+    public int getNodeLatByPosition(int position) {
+        return position >= 0 ? simpleNodeLats[position] : nodeLats[-2 - position];
+    }
+
+    public int getNodeLonByPosition(int position) {
+        return position >= 0 ? simpleNodeLons[position] : nodeLons[-2 - position];
+    }
+
+    public IOsmNode getNodeByPosition(int position) {
+        if (position == NODE_POSITION_MISSING) {
+            return null;
+        }
+        return position >= 0 ? new OsmSimpleNode(this, position) : new OsmNode(this, -2 - position);
+    }
+
+    /**
+     * Resolve node IDs of all ways into node positions. After that, geometry of ways can be created by direct
+     * access to coordinates instead search of each node by ID. Positions are dropped on any storage update,
+     * and this method should be called again after update if required.
+     */
+    public void resolveWayNodes() {
+        // garbage is resolved too, because ways got before update can still use previous place
+        int[] positions = new int[wayNodesSize];
+        IntStream.range(0, wayNodesSize).parallel().forEach(j -> positions[j] = getNodePosition(wayNodes[j]));
+        wayNodePositions = positions;
+    }
+
+    /**
+     * Build inverted index of tag keys for faster byTag() search. Index is dropped on any storage update, and
+     * this method should be called again after update if required.
+     */
+    public void buildTagIndex() {
+        int keysCount = tagsPack.size();
+        nodeTagIndex = new TagKeyIndex(nodeTags, keysCount);
+        wayTagIndex = new TagKeyIndex(wayTags, keysCount);
+        relationTagIndex = new TagKeyIndex(getRelationTags(), keysCount);
+    }
+
+    /**
+     * Tags of relations in the same form as for nodes and ways, for build indexes.
+     */
+    private TagsStore getRelationTags() {
+        TagsStore result = new TagsStore();
+        for (int i = 0; i < relations.size(); i++) {
+            OsmBase r = (OsmBase) relations.get(i);
+            for (int j = 0; j < r.tagKeys.length; j++) {
+                result.addTag(r.tagKeys[j], r.tagValues[j]);
+            }
+            result.endObject();
+        }
+        return result;
+    }
+
+    /**
+     * Build spatial index for {@link #inBox(BoundingBox, Consumer)} by many threads. Index is dropped on any
+     * storage update, and this method should be called again after update if required.
+     */
+    public void buildSpatialIndex() {
+        spatialIndex = new SpatialIndex(this);
+    }
+
+    /**
+     * Build copy of simple nodes coordinates sorted along Hilbert curve. Nodes of one way or one city are
+     * placed near each other in this copy, so geometry build and area scan read memory mostly sequentially.
+     * Copy is dropped on any storage update, and this method should be called again after update if required.
+     */
+    public void buildHilbertLayout() {
+        hilbertLayout = new HilbertLayout(this);
+    }
+
+    /**
+     * Hilbert layout, built on the first call if it was not built before.
+     */
+    private HilbertLayout hilbertLayout() {
+        HilbertLayout layout = hilbertLayout;
+        if (layout == null) {
+            layout = new HilbertLayout(this);
+            hilbertLayout = layout;
+        }
+        return layout;
+    }
+
+    /**
+     * Get slot of simple node in Hilbert layout, or -1 if there is no such simple node. Layout is built on
+     * the first call if it was not built before.
+     */
+    public int getHilbertSlot(long id) {
+        HilbertLayout layout = hilbertLayout();
+        int pos = Arrays.binarySearch(simpleNodeIds, 0, simpleNodeCount, id);
+        return pos >= 0 ? layout.slots[pos] : -1;
+    }
+
+    /**
+     * Get slot of simple node in Hilbert layout by node position, see {@link #getNodePosition(long)}, or -1
+     * if position is not a simple node position.
+     */
+    public int getHilbertSlotByPosition(int position) {
+        HilbertLayout layout = hilbertLayout();
+        return position >= 0 ? layout.slots[position] : -1;
+    }
+
+    public long getHilbertSlotId(int slot) {
+        return simpleNodeIds[hilbertLayout().positions[slot]];
+    }
+
+    public int getHilbertSlotLat(int slot) {
+        return hilbertLayout().lats[slot];
+    }
+
+    public int getHilbertSlotLon(int slot) {
+        return hilbertLayout().lons[slot];
+    }
+
+    /**
+     * Process slots of simple nodes inside box by Hilbert layout. Layout is built on the first call if it was
+     * not built before.
+     */
+    public void hilbertSlotsInBox(BoundingBox box, IntConsumer slotConsumer) {
+        hilbertLayout().query(box.minLat, box.maxLat, box.minLon, box.maxLon, slotConsumer);
+    }
+
+    /**
+     * Process all simple nodes, i.e. nodes without tags, in ID order without node objects creation.
+     */
+    public void scanSimpleNodes(SimpleNodeVisitor visitor) {
+        long[] ids = simpleNodeIds;
+        int[] lats = simpleNodeLats, lons = simpleNodeLons;
+        for (int i = 0; i < simpleNodeCount; i++) {
+            visitor.visit(ids[i], lats[i], lons[i]);
+        }
+    }
+
+    /**
+     * Process simple nodes inside box. If Hilbert layout was built, it's used for skip areas outside box, and
+     * nodes are processed in Hilbert curve order instead ID order.
+     *
+     * @param box
+     *            process only nodes inside box, or all nodes if null
+     */
+    public void scanSimpleNodes(BoundingBox box, SimpleNodeVisitor visitor) {
+        if (box == null) {
+            scanSimpleNodes(visitor);
+            return;
+        }
+        int minLat = box.minLat, maxLat = box.maxLat, minLon = box.minLon, maxLon = box.maxLon;
+        HilbertLayout layout = hilbertLayout;
+        if (layout != null) {
+            layout.query(minLat, maxLat, minLon, maxLon,
+                    s -> visitor.visit(simpleNodeIds[layout.positions[s]], layout.lats[s], layout.lons[s]));
+            return;
+        }
+        long[] ids = simpleNodeIds;
+        int[] lats = simpleNodeLats, lons = simpleNodeLons;
+        for (int i = 0; i < simpleNodeCount; i++) {
+            int lat = lats[i], lon = lons[i];
+            if (lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon) {
+                visitor.visit(ids[i], lat, lon);
+            }
+        }
+    }
+
+    /**
+     * Process simple nodes by threads of pool. Visitor is called from many threads.
+     *
+     * @param box
+     *            process only nodes inside box, or all nodes if null
+     */
+    public void parallelScanSimpleNodes(ForkJoinPool pool, BoundingBox box, SimpleNodeVisitor visitor) {
+        long[] ids = simpleNodeIds;
+        int[] lats = simpleNodeLats, lons = simpleNodeLons;
+        IntConsumer processor;
+        if (box == null) {
+            processor = i -> visitor.visit(ids[i], lats[i], lons[i]);
         } else {
-            return getById(nodes, id);
+            int minLat = box.minLat, maxLat = box.maxLat, minLon = box.minLon, maxLon = box.maxLon;
+            processor = i -> {
+                int lat = lats[i], lon = lons[i];
+                if (lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon) {
+                    visitor.visit(ids[i], lat, lon);
+                }
+            };
+        }
+        ParallelScan.run(pool, simpleNodeCount, processor, 0, null, 0, null);
+    }
+
+    /**
+     * Build index of ways for each node and relations for each member, used by {@link #getWaysForNode(long)}
+     * and {@link #getRelationsForMember(int, long)}. Index is dropped on any storage update.
+     */
+    public void buildReverseIndex() {
+        reverseIndex = new ReverseIndex(this);
+    }
+
+    /**
+     * Get IDs of ways which contain node. Reverse index is built on the first call if it was not built
+     * before.
+     */
+    public long[] getWaysForNode(long id) {
+        ReverseIndex index = reverseIndex;
+        if (index == null) {
+            buildReverseIndex();
+            index = reverseIndex;
+        }
+        int c = index.nodeChild(getNodePosition(id));
+        ReverseIndex.Refs refs = index.nodeWays;
+        long[] result = new long[refs.to(c) - refs.from(c)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = wayIds[refs.parents[refs.from(c) + i]];
+        }
+        return result;
+    }
+
+    /**
+     * Get IDs of relations which contain member. Reverse index is built on the first call if it was not built
+     * before.
+     *
+     * @param type
+     *            member type, like IOsmObject.TYPE_NODE
+     */
+    public long[] getRelationsForMember(int type, long id) {
+        ReverseIndex index = reverseIndex;
+        if (index == null) {
+            buildReverseIndex();
+            index = reverseIndex;
+        }
+        int c;
+        ReverseIndex.Refs refs;
+        switch (type) {
+        case IOsmObject.TYPE_NODE:
+            c = index.nodeChild(getNodePosition(id));
+            refs = index.nodeRelations;
+            break;
+        case IOsmObject.TYPE_WAY:
+            c = Arrays.binarySearch(wayIds, 0, wayCount, id);
+            refs = index.wayRelations;
+            break;
+        case IOsmObject.TYPE_RELATION:
+            c = binarySearch(relations, id);
+            refs = index.relationRelations;
+            break;
+        default:
+            throw new RuntimeException("Unknown member type: " + type);
+        }
+        long[] result = new long[refs.to(c) - refs.from(c)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = relations.get(refs.parents[refs.from(c) + i]).getId();
+        }
+        return result;
+    }
+
+    private void dropIndexes() {
+        nodeTagIndex = null;
+        wayTagIndex = null;
+        relationTagIndex = null;
+        tagValueIndexes.clear();
+        spatialIndex = null;
+        hilbertLayout = null;
+        reverseIndex = null;
+    }
+
+    /**
+     * Add node with tags to the end of list while loading. Tags should be added into nodeTags after that.
+     */
+    void appendNode(long id, int lat, int lon, int user) {
+        if (nodeCount >= nodeIds.length) {
+            extendNodes(nodeCount + 1);
+        }
+        nodeIds[nodeCount] = id;
+        nodeLats[nodeCount] = lat;
+        nodeLons[nodeCount] = lon;
+        nodeUsers.set(nodeCount, user);
+        nodeCount++;
+    }
+
+    /**
+     * Add all nodes from part to the end while parallel loading.
+     */
+    void appendNodes(MemoryStorage part) {
+        int newSimpleCount = simpleNodeCount + part.simpleNodeCount;
+        int newCount = nodeCount + part.nodeCount;
+        ensureNodesCapacity(newSimpleCount, newCount);
+        System.arraycopy(part.simpleNodeIds, 0, simpleNodeIds, simpleNodeCount, part.simpleNodeCount);
+        System.arraycopy(part.simpleNodeLats, 0, simpleNodeLats, simpleNodeCount, part.simpleNodeCount);
+        System.arraycopy(part.simpleNodeLons, 0, simpleNodeLons, simpleNodeCount, part.simpleNodeCount);
+        simpleNodeCount = newSimpleCount;
+
+        System.arraycopy(part.nodeIds, 0, nodeIds, nodeCount, part.nodeCount);
+        System.arraycopy(part.nodeLats, 0, nodeLats, nodeCount, part.nodeCount);
+        System.arraycopy(part.nodeLons, 0, nodeLons, nodeCount, part.nodeCount);
+        nodeUsers.copyFrom(part.nodeUsers, 0, nodeCount, part.nodeCount);
+        nodeCount = newCount;
+        nodeTags.appendAll(part.nodeTags);
+    }
+
+    /**
+     * Extend node arrays for specified count of simple nodes and nodes with tags. Arrays grow by half at
+     * least, so many appends don't copy arrays each time.
+     */
+    void ensureNodesCapacity(int newSimpleCount, int newCount) {
+        if (newSimpleCount > simpleNodeIds.length) {
+            int newLength = Math.max(newSimpleCount, simpleNodeIds.length + simpleNodeIds.length / 2);
+            simpleNodeIds = Arrays.copyOf(simpleNodeIds, newLength);
+            simpleNodeLats = Arrays.copyOf(simpleNodeLats, newLength);
+            simpleNodeLons = Arrays.copyOf(simpleNodeLons, newLength);
+        }
+        if (newCount > nodeIds.length) {
+            extendNodes(newCount);
         }
     }
 
+    private void extendNodes(int newCount) {
+        int newLength = Math.max(newCount, nodeIds.length + nodeIds.length / 2);
+        nodeIds = Arrays.copyOf(nodeIds, newLength);
+        nodeLats = Arrays.copyOf(nodeLats, newLength);
+        nodeLons = Arrays.copyOf(nodeLons, newLength);
+        nodeUsers.resize(newLength);
+    }
+
     /**
      * Remove node.
      */
     void removeNode(long id) {
+        wayNodePositions = null;
+        dropIndexes();
         int pos = Arrays.binarySearch(simpleNodeIds, 0, simpleNodeCount, id);
         if (pos >= 0) {
             System.arraycopy(simpleNodeIds, pos + 1, simpleNodeIds, pos, simpleNodeCount - pos - 1);
             System.arraycopy(simpleNodeLats, pos + 1, simpleNodeLats, pos, simpleNodeCount - pos - 1);
             System.arraycopy(simpleNodeLons, pos + 1, simpleNodeLons, pos, simpleNodeCount - pos - 1);
             simpleNodeCount--;
-        } else {
-            remove(nodes, id);
+            return;
+        }
+        pos = Arrays.binarySearch(nodeIds, 0, nodeCount, id);
+        if (pos >= 0) {
+            System.arraycopy(nodeIds, pos + 1, nodeIds, pos, nodeCount - pos - 1);
+            System.arraycopy(nodeLats, pos + 1, nodeLats, pos, nodeCount - pos - 1);
+            System.arraycopy(nodeLons, pos + 1, nodeLons, pos, nodeCount - pos - 1);
+            nodeUsers.move(pos + 1, pos, nodeCount - pos - 1);
+            nodeCount--;
+            nodeTags.remove(pos);
         }
     }
 
@@ -219,14 +693,17 @@ public class MemoryStorage {
      * Add or update node.
      */
     void addSimpleNode(long id, int lat, int lon) {
+        wayNodePositions = null;
+        dropIndexes();
         int pos = Arrays.binarySearch(simpleNodeIds, 0, simpleNodeCount, id);
         if (pos < 0) {
             removeNode(id);
             if (simpleNodeIds.length == simpleNodeCount) {
                 // extend simple nodes
-                simpleNodeIds = Arrays.copyOf(simpleNodeIds, simpleNodeIds.length + 4096);
-                simpleNodeLats = Arrays.copyOf(simpleNodeLats, simpleNodeLats.length + 4096);
-                simpleNodeLons = Arrays.copyOf(simpleNodeLons, simpleNodeLons.length + 4096);
+                int newLength = simpleNodeIds.length + Math.max(4096, simpleNodeIds.length / 2);
+                simpleNodeIds = Arrays.copyOf(simpleNodeIds, newLength);
+                simpleNodeLats = Arrays.copyOf(simpleNodeLats, newLength);
+                simpleNodeLons = Arrays.copyOf(simpleNodeLons, newLength);
             }
             pos = getPositionForInsert(simpleNodeIds, simpleNodeCount, id);
             System.arraycopy(simpleNodeIds, pos, simpleNodeIds, pos + 1, simpleNodeCount - pos);
@@ -243,49 +720,169 @@ public class MemoryStorage {
     /**
      * Add or update node.
      */
-    void addNode(IOsmNode n) {
-        int posComplex = binarySearch(nodes, n.getId());
-        if (posComplex >= 0) {
-            nodes.set(posComplex, n);
+    void addNode(OsmNode n) {
+        wayNodePositions = null;
+        dropIndexes();
+        int pos = Arrays.binarySearch(nodeIds, 0, nodeCount, n.getId());
+        if (pos >= 0) {
+            nodeTags.set(pos, n.tagKeys, n.tagValues);
         } else {
             removeNode(n.getId());
-            int pos = getPositionForInsert(nodes, n.getId());
-            nodes.add(pos, n);
+            if (nodeCount == nodeIds.length) {
+                extendNodes(nodeCount + 1);
+            }
+            pos = getPositionForInsert(nodeIds, nodeCount, n.getId());
+            System.arraycopy(nodeIds, pos, nodeIds, pos + 1, nodeCount - pos);
+            System.arraycopy(nodeLats, pos, nodeLats, pos + 1, nodeCount - pos);
+            System.arraycopy(nodeLons, pos, nodeLons, pos + 1, nodeCount - pos);
+            nodeUsers.move(pos, pos + 1, nodeCount - pos);
+            nodeCount++;
+            nodeTags.insert(pos, n.tagKeys, n.tagValues);
         }
+        nodeIds[pos] = n.getId();
+        nodeLats[pos] = n.getLat();
+        nodeLons[pos] = n.getLon();
+        nodeUsers.set(pos, n.getUser());
     }
 
     public IOsmWay getWayById(long id) {
-        return getById(ways, id);
+        int pos = Arrays.binarySearch(wayIds, 0, wayCount, id);
+        return pos < 0 ? null : new OsmWay(this, pos);
+    }
+
+    /**
+     * Add way to the end of list while loading. Tags should be added into wayTags after that.
+     */
+    void appendWay(long id, int user, long[] nodes, int nodesCount) {
+        appendWay(id, user, nodes, 0, nodesCount);
+    }
+
+    private void appendWay(long id, int user, long[] nodes, int nodesFrom, int nodesCount) {
+        if (wayCount >= wayIds.length) {
+            extendWays(wayCount + 1);
+        }
+        ensureWayNodesCapacity(wayNodesSize + nodesCount);
+        System.arraycopy(nodes, nodesFrom, wayNodes, wayNodesSize, nodesCount);
+        wayIds[wayCount] = id;
+        wayUsers.set(wayCount, user);
+        wayNodesOffsets[wayCount] = wayNodesSize;
+        wayNodesCounts[wayCount] = nodesCount;
+        wayNodesSize += nodesCount;
+        wayCount++;
+    }
+
+    /**
+     * Add way from part to the end while parallel loading.
+     */
+    void appendWay(MemoryStorage part, int pos) {
+        appendWay(part.wayIds[pos], part.wayUsers.get(pos), part.wayNodes, part.wayNodesOffsets[pos],
+                part.wayNodesCounts[pos]);
+        wayTags.append(part.wayTags, pos);
+    }
+
+    private void extendWays(int newCount) {
+        int newLength = Math.max(newCount, wayIds.length + wayIds.length / 2);
+        wayIds = Arrays.copyOf(wayIds, newLength);
+        wayUsers.resize(newLength);
+        wayNodesOffsets = Arrays.copyOf(wayNodesOffsets, newLength);
+        wayNodesCounts = Arrays.copyOf(wayNodesCounts, newLength);
+    }
+
+    private void ensureWayNodesCapacity(int newSize) {
+        if (newSize > wayNodes.length) {
+            wayNodes = Arrays.copyOf(wayNodes, Math.max(newSize, wayNodes.length + wayNodes.length / 2));
+        }
     }
 
     /**
      * Remove way.
      */
     void removeWay(long id) {
-        remove(ways, id);
+        wayNodePositions = null;
+        dropIndexes();
+        int pos = Arrays.binarySearch(wayIds, 0, wayCount, id);
+        if (pos >= 0) {
+            wayNodesGarbage += wayNodesCounts[pos];
+            System.arraycopy(wayIds, pos + 1, wayIds, pos, wayCount - pos - 1);
+            wayUsers.move(pos + 1, pos, wayCount - pos - 1);
+            System.arraycopy(wayNodesOffsets, pos + 1, wayNodesOffsets, pos, wayCount - pos - 1);
+            System.arraycopy(wayNodesCounts, pos + 1, wayNodesCounts, pos, wayCount - pos - 1);
+            wayCount--;
+            wayTags.remove(pos);
+        }
     }
 
     /**
      * Add or update way.
      */
-    void addWay(IOsmWay w) {
-        int pos = binarySearch(ways, w.getId());
+    void addWay(OsmWay w) {
+        wayNodePositions = null;
+        dropIndexes();
+        int pos = Arrays.binarySearch(wayIds, 0, wayCount, w.getId());
         if (pos >= 0) {
-            ways.set(pos, w);
+            wayTags.set(pos, w.tagKeys, w.tagValues);
+            wayNodesGarbage += wayNodesCounts[pos];
         } else {
-            pos = getPositionForInsert(ways, w.getId());
-            ways.add(pos, w);
+            if (wayCount == wayIds.length) {
+                extendWays(wayCount + 1);
+            }
+            pos = getPositionForInsert(wayIds, wayCount, w.getId());
+            System.arraycopy(wayIds, pos, wayIds, pos + 1, wayCount - pos);
+            wayUsers.move(pos, pos + 1, wayCount - pos);
+            System.arraycopy(wayNodesOffsets, pos, wayNodesOffsets, pos + 1, wayCount - pos);
+            System.arraycopy(wayNodesCounts, pos, wayNodesCounts, pos + 1, wayCount - pos);
+            wayCount++;
+            wayTags.insert(pos, w.tagKeys, w.tagValues);
+        }
+        // node IDs are always added to the end, because ways got before can still use previous place
+        int count = w.getNodesCount();
+        ensureWayNodesCapacity(wayNodesSize + count);
+        for (int i = 0; i < count; i++) {
+            wayNodes[wayNodesSize + i] = w.getNodeId(i);
+        }
+        wayIds[pos] = w.getId();
+        wayUsers.set(pos, w.getUser());
+        wayNodesOffsets[pos] = wayNodesSize;
+        wayNodesCounts[pos] = count;
+        wayNodesSize += count;
+        if (wayNodesGarbage > wayNodesSize / 2) {
+            compactWayNodes();
         }
     }
 
+    /**
+     * Place node IDs of all ways into new array in the ways order, without garbage.
+     */
+    void compactWayNodes() {
+        wayNodePositions = null;
+        long[] result = new long[wayNodesSize - wayNodesGarbage + 64 * 1024];
+        int p = 0;
+        for (int i = 0; i < wayCount; i++) {
+            System.arraycopy(wayNodes, wayNodesOffsets[i], result, p, wayNodesCounts[i]);
+            wayNodesOffsets[i] = p;
+            p += wayNodesCounts[i];
+        }
+        wayNodes = result;
+        wayNodesSize = p;
+        wayNodesGarbage = 0;
+    }
+
     public IOsmRelation getRelationById(long id) {
         return getById(relations, id);
     }
 
+    /**
+     * Add all relations from part to the end while parallel loading.
+     */
+    void appendRelations(MemoryStorage part) {
+        relations.addAll(part.relations);
+    }
+
     /**
      * Remove relation.
      */
     void removeRelation(long id) {
+        dropIndexes();
         remove(relations, id);
     }
 
@@ -293,6 +890,7 @@ public class MemoryStorage {
      * Add or update relation.
      */
     void addRelation(IOsmRelation r) {
+        dropIndexes();
         int pos = binarySearch(relations, r.getId());
         if (pos >= 0) {
             relations.set(pos, r);
@@ -302,6 +900,198 @@ public class MemoryStorage {
         }
     }
 
+    /**
+     * Apply all collected changes. Each array is rebuilt by one merge pass of existing objects and sorted
+     * changes, so it's much faster than separate updates for big change sets. Batch is cleared after that.
+     */
+    void applyChanges(ChangeBatch batch) {
+        wayNodePositions = null;
+        dropIndexes();
+        if (!batch.nodes.isEmpty()) {
+            mergeSimpleNodes(batch.nodes);
+            mergeNodes(batch.nodes);
+        }
+        if (!batch.ways.isEmpty()) {
+            mergeWays(batch.ways);
+        }
+        if (!batch.relations.isEmpty()) {
+            mergeRelations(batch.relations);
+        }
+        batch.clear();
+    }
+
+    private void mergeSimpleNodes(Map<Long, OsmNode> changes) {
+        int length = Math.max(simpleNodeIds.length, simpleNodeCount + changes.size());
+        long[] ids = new long[length];
+        int[] lats = new int[length];
+        int[] lons = new int[length];
+        int count = 0;
+        int i = 0;
+        for (Map.Entry<Long, OsmNode> en : changes.entrySet()) {
+            long id = en.getKey();
+            int pos = Arrays.binarySearch(simpleNodeIds, i, simpleNodeCount, id);
+            int end = pos >= 0 ? pos : -pos - 1;
+            // copy unchanged nodes before changed
+            System.arraycopy(simpleNodeIds, i, ids, count, end - i);
+            System.arraycopy(simpleNodeLats, i, lats, count, end - i);
+            System.arraycopy(simpleNodeLons, i, lons, count, end - i);
+            count += end - i;
+            i = pos >= 0 ? pos + 1 : end;
+            OsmNode n = en.getValue();
+            if (n != null && n.tagKeys.length == 0) {
+                ids[count] = id;
+                lats[count] = n.getLat();
+                lons[count] = n.getLon();
+                count++;
+            }
+        }
+        System.arraycopy(simpleNodeIds, i, ids, count, simpleNodeCount - i);
+        System.arraycopy(simpleNodeLats, i, lats, count, simpleNodeCount - i);
+        System.arraycopy(simpleNodeLons, i, lons, count, simpleNodeCount - i);
+        simpleNodeIds = ids;
+        simpleNodeLats = lats;
+        simpleNodeLons = lons;
+        simpleNodeCount = count + simpleNodeCount - i;
+    }
+
+    private void mergeNodes(Map<Long, OsmNode> changes) {
+        int length = Math.max(nodeIds.length, nodeCount + changes.size());
+        long[] ids = new long[length];
+        int[] lats = new int[length];
+        int[] lons = new int[length];
+        CodeArray users = new CodeArray(length);
+        TagsStore tags = new TagsStore();
+        int count = 0;
+        int i = 0;
+        for (Map.Entry<Long, OsmNode> en : changes.entrySet()) {
+            long id = en.getKey();
+            int pos = Arrays.binarySearch(nodeIds, i, nodeCount, id);
+            int end = pos >= 0 ? pos : -pos - 1;
+            // copy unchanged nodes before changed
+            System.arraycopy(nodeIds, i, ids, count, end - i);
+            System.arraycopy(nodeLats, i, lats, count, end - i);
+            System.arraycopy(nodeLons, i, lons, count, end - i);
+            users.copyFrom(nodeUsers, i, count, end - i);
+            tags.append(nodeTags, i, end);
+            count += end - i;
+            i = pos >= 0 ? pos + 1 : end;
+            OsmNode n = en.getValue();
+            if (n != null && n.tagKeys.length > 0) {
+                ids[count] = id;
+                lats[count] = n.getLat();
+                lons[count] = n.getLon();
+                users.set(count, n.getUser());
+                tags.append(n.tagKeys, n.tagValues);
+                count++;
+            }
+        }
+        System.arraycopy(nodeIds, i, ids, count, nodeCount - i);
+        System.arraycopy(nodeLats, i, lats, count, nodeCount - i);
+        System.arraycopy(nodeLons, i, lons, count, nodeCount - i);
+        users.copyFrom(nodeUsers, i, count, nodeCount - i);
+        tags.append(nodeTags, i, nodeCount);
+        nodeIds = ids;
+        nodeLats = lats;
+        nodeLons = lons;
+        nodeUsers = users;
+        nodeCount = count + nodeCount - i;
+        nodeTags.replaceWith(tags);
+    }
+
+    /**
+     * Node IDs of ways are placed into new array in the ways order, like after compaction.
+     */
+    private void mergeWays(Map<Long, OsmWay> changes) {
+        int length = Math.max(wayIds.length, wayCount + changes.size());
+        long[] ids = new long[length];
+        CodeArray users = new CodeArray(length);
+        int[] offsets = new int[length];
+        int[] counts = new int[length];
+        int nodesSize = wayNodesSize - wayNodesGarbage;
+        for (OsmWay w : changes.values()) {
+            if (w != null) {
+                nodesSize += w.getNodesCount();
+            }
+        }
+        long[] nodes = new long[nodesSize];
+        TagsStore tags = new TagsStore();
+        int count = 0;
+        int p = 0;
+        int i = 0;
+        for (Map.Entry<Long, OsmWay> en : changes.entrySet()) {
+            long id = en.getKey();
+            int pos = Arrays.binarySearch(wayIds, i, wayCount, id);
+            int end = pos >= 0 ? pos : -pos - 1;
+            // copy unchanged ways before changed
+            p = copyWays(i, end, ids, users, offsets, counts, nodes, count, p);
+            tags.append(wayTags, i, end);
+            count += end - i;
+            i = pos >= 0 ? pos + 1 : end;
+            OsmWay w = en.getValue();
+            if (w != null) {
+                int nodesCount = w.getNodesCount();
+                for (int j = 0; j < nodesCount; j++) {
+                    nodes[p + j] = w.getNodeId(j);
+                }
+                ids[count] = id;
+                users.set(count, w.getUser());
+                offsets[count] = p;
+                counts[count] = nodesCount;
+                tags.append(w.tagKeys, w.tagValues);
+                p += nodesCount;
+                count++;
+            }
+        }
+        p = copyWays(i, wayCount, ids, users, offsets, counts, nodes, count, p);
+        tags.append(wayTags, i, wayCount);
+        wayIds = ids;
+        wayUsers = users;
+        wayNodesOffsets = offsets;
+        wayNodesCounts = counts;
+        wayCount = count + wayCount - i;
+        wayNodes = nodes;
+        wayNodesSize = p;
+        wayNodesGarbage = 0;
+        wayTags.replaceWith(tags);
+    }
+
+    /**
+     * Copy ways from 'from' to 'to' (exclusive) into new arrays from index 'dest' and their node IDs from
+     * position 'p'. Returns position after copied node IDs.
+     */
+    private int copyWays(int from, int to, long[] ids, CodeArray users, int[] offsets, int[] counts,
+            long[] nodes, int dest, int p) {
+        System.arraycopy(wayIds, from, ids, dest, to - from);
+        users.copyFrom(wayUsers, from, dest, to - from);
+        System.arraycopy(wayNodesCounts, from, counts, dest, to - from);
+        for (int i = from; i < to; i++) {
+            System.arraycopy(wayNodes, wayNodesOffsets[i], nodes, p, wayNodesCounts[i]);
+            offsets[dest + i - from] = p;
+            p += wayNodesCounts[i];
+        }
+        return p;
+    }
+
+    private void mergeRelations(Map<Long, IOsmRelation> changes) {
+        List<IOsmRelation> result = new ArrayList<>(relations.size() + changes.size());
+        int i = 0;
+        for (Map.Entry<Long, IOsmRelation> en : changes.entrySet()) {
+            long id = en.getKey();
+            while (i < relations.size() && relations.get(i).getId() < id) {
+                result.add(relations.get(i++));
+            }
+            if (i < relations.size() && relations.get(i).getId() == id) {
+                i++;
+            }
+            if (en.getValue() != null) {
+                result.add(en.getValue());
+            }
+        }
+        result.addAll(relations.subList(i, relations.size()));
+        relations.clear();
+        relations.addAll(result);
+    }
+
     /**
      * Get object by code like n123, w456, r789.
      */
@@ -346,60 +1136,121 @@ public class MemoryStorage {
         DecimalFormat f = new DecimalFormat(",##0");
         System.out.println("Loading time       : " + f.format((loadingFinishTime - loadingStartTime)) + "ms");
         System.out.println("Simple nodes count : " + f.format(simpleNodeCount));
-        System.out.println("Nodes count        : " + f.format(nodes.size()));
-        System.out.println("Ways count         : " + f.format(ways.size()));
+        System.out.println("Nodes count        : " + f.format(nodeCount));
+        System.out.println("Ways count         : " + f.format(wayCount));
         System.out.println("Relations count    : " + f.format(relations.size()));
-        System.out.println("Tags count         : " + f.format(tagsPack.tagCodes.size()));
-        System.out.println("RelRoles count     : " + f.format(relationRolesPack.tagCodes.size()));
-        System.out.println("Users count        : " + f.format(usersPack.tagCodes.size()));
+        System.out.println("Tags count         : " + f.format(tagsPack.size()));
+        System.out.println("RelRoles count     : " + f.format(relationRolesPack.size()));
+        System.out.println("Users count        : " + f.format(usersPack.size()));
+        if (wayNodePositions != null) {
+            System.out.println("Way node positions : " + f.format(wayNodePositions.length * 4L / 1024 / 1024)
+                    + "MiB");
+        }
+        if (nodeTagIndex != null) {
+            long size = nodeTagIndex.getMemorySize() + wayTagIndex.getMemorySize()
+                    + relationTagIndex.getMemorySize();
+            System.out.println("Tag index          : " + f.format(size / 1024 / 1024) + "MiB");
+        }
+        if (!tagValueIndexes.isEmpty()) {
+            long size = 0;
+            for (TagValueIndex index : tagValueIndexes.values()) {
+                size += index.getMemorySize();
+            }
+            System.out.println("Tag value index    : " + f.format(tagValueIndexes.size()) + " keys, "
+                    + f.format(size / 1024 / 1024) + "MiB");
+        }
+        if (hilbertLayout != null) {
+            System.out.println("Hilbert layout     : " + f.format(hilbertLayout.getMemorySize() / 1024 / 1024)
+                    + "MiB");
+        }
+        if (reverseIndex != null) {
+            System.out.println("Reverse index      : " + f.format(reverseIndex.getMemorySize() / 1024 / 1024)
+                    + "MiB");
+        }
+        if (spatialIndex != null) {
+            System.out.println("Spatial index      : " + f.format(spatialIndex.getMemorySize() / 1024 / 1024)
+                    + "MiB");
+        }
+        System.out.println("Nodes heap saved   : " + f.format(getNodesHeapSaved() / 1024 / 1024) + "MiB");
+        System.out.println("Ways heap saved    : " + f.format(getWaysHeapSaved() / 1024 / 1024) + "MiB");
     }
 
     /**
-     * Process objects with specific tag.
+     * Estimate how much heap saved by columnar storage of nodes with tags in comparison with separate OsmNode
+     * objects in list. It assumes 64-bit JVM with compressed oops.
      */
-    public void byTag(String tagName, Predicate<IOsmObject> predicate, Consumer<IOsmObject> consumer) {
-        short tagKey = tagsPack.getTagCode(tagName);
-        for (int i = 0; i < nodes.size(); i++) {
-            IOsmNode n = nodes.get(i);
-            if (n.hasTag(tagKey)) {
-                if (predicate.test(n)) {
-                    consumer.accept(n);
-                }
-            }
+    long getNodesHeapSaved() {
+        long objects = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            int tc = nodeTags.getTagsCount(i);
+            // OsmNode object, int[] of keys, byte[][] of values, reference from list
+            objects += 40 + align8(16 + 4 * tc) + align8(16 + 4 * tc) + 4;
         }
-        for (int i = 0; i < ways.size(); i++) {
-            IOsmWay w = ways.get(i);
-            if (w.hasTag(tagKey)) {
-                if (predicate.test(w)) {
-                    consumer.accept(w);
-                }
-            }
-        }
-        for (int i = 0; i < relations.size(); i++) {
-            IOsmRelation r = relations.get(i);
-            if (r.hasTag(tagKey)) {
-                if (predicate.test(r)) {
-                    consumer.accept(r);
-                }
-            }
+        // id, lat, lon, user, tags offset
+        long columns = nodeCount * (8L + 4 + 4 + (nodeUsers.isWide() ? 4 : 2) + 4);
+        return objects - columns;
+    }
+
+    /**
+     * Estimate how much heap saved by columnar storage of ways in comparison with separate OsmWay objects in
+     * list.
+     */
+    long getWaysHeapSaved() {
+        long objects = 0;
+        for (int i = 0; i < wayCount; i++) {
+            int tc = wayTags.getTagsCount(i);
+            // OsmWay object, long[] of node IDs, int[] of keys, byte[][] of values, reference from list
+            objects += 40 + align8(16 + 8 * wayNodesCounts[i]) + align8(16 + 4 * tc) + align8(16 + 4 * tc) + 4;
         }
+        // id, user, tags offset, node IDs offset and count, node IDs
+        long columns = wayCount * (8L + (wayUsers.isWide() ? 4 : 2) + 4 + 4 + 4) + 8L * wayNodesSize;
+        return objects - columns;
+    }
+
+    private static long align8(long size) {
+        return (size + 7) & ~7L;
     }
 
     /**
      * Process objects with specific tag.
      */
+    public void byTag(String tagName, Predicate<IOsmObject> predicate, Consumer<IOsmObject> consumer) {
+        byTag(tagName, o -> {
+            if (predicate.test(o)) {
+                consumer.accept(o);
+            }
+        });
+    }
+
+    /**
+     * Process objects with specific tag. Uses tag index if it was built by {@link #buildTagIndex()}.
+     */
     public void byTag(String tagName, Consumer<IOsmObject> consumer) {
-        short tagKey = tagsPack.getTagCode(tagName);
-        for (int i = 0; i < nodes.size(); i++) {
-            IOsmNode n = nodes.get(i);
-            if (n.hasTag(tagKey)) {
-                consumer.accept(n);
+        int tagKey = tagsPack.findTagCode(tagName);
+        if (tagKey == StringPack.NOT_FOUND) {
+            return;
+        }
+        TagKeyIndex nodeIndex = nodeTagIndex, wayIndex = wayTagIndex, relationIndex = relationTagIndex;
+        if (nodeIndex != null) {
+            for (int i = nodeIndex.from(tagKey); i < nodeIndex.to(tagKey); i++) {
+                consumer.accept(new OsmNode(this, nodeIndex.positions[i]));
+            }
+            for (int i = wayIndex.from(tagKey); i < wayIndex.to(tagKey); i++) {
+                consumer.accept(new OsmWay(this, wayIndex.positions[i]));
+            }
+            for (int i = relationIndex.from(tagKey); i < relationIndex.to(tagKey); i++) {
+                consumer.accept(relations.get(relationIndex.positions[i]));
             }
+            return;
         }
-        for (int i = 0; i < ways.size(); i++) {
-            IOsmWay w = ways.get(i);
-            if (w.hasTag(tagKey)) {
-                consumer.accept(w);
+        for (int i = 0; i < nodeCount; i++) {
+            if (nodeTags.hasTag(i, tagKey)) {
+                consumer.accept(new OsmNode(this, i));
+            }
+        }
+        for (int i = 0; i < wayCount; i++) {
+            if (wayTags.hasTag(i, tagKey)) {
+                consumer.accept(new OsmWay(this, i));
             }
         }
         for (int i = 0; i < relations.size(); i++) {
@@ -410,18 +1261,67 @@ public class MemoryStorage {
         }
     }
 
+    /**
+     * Process objects with specific tag value, like highway=residential. Index of values is created for key
+     * on the first call, and used until storage update.
+     */
+    public void byTagValue(String tagName, String value, Consumer<IOsmObject> consumer) {
+        int tagKey = tagsPack.findTagCode(tagName);
+        if (tagKey == StringPack.NOT_FOUND) {
+            return;
+        }
+        TagValueIndex index = tagValueIndexes.computeIfAbsent(tagKey, k -> new TagValueIndex(k,
+                new TagsStore[] { nodeTags, wayTags, getRelationTags() }, new TagKeyIndex[] { nodeTagIndex,
+                        wayTagIndex, relationTagIndex }));
+        int v = index.getValueId(value);
+        if (v < 0) {
+            return;
+        }
+        int[] nodeOffsets = index.offsets[0], nodePositions = index.positions[0];
+        for (int i = nodeOffsets[v]; i < nodeOffsets[v + 1]; i++) {
+            consumer.accept(new OsmNode(this, nodePositions[i]));
+        }
+        int[] wayOffsets = index.offsets[1], wayPositions = index.positions[1];
+        for (int i = wayOffsets[v]; i < wayOffsets[v + 1]; i++) {
+            consumer.accept(new OsmWay(this, wayPositions[i]));
+        }
+        int[] relationOffsets = index.offsets[2], relationPositions = index.positions[2];
+        for (int i = relationOffsets[v]; i < relationOffsets[v + 1]; i++) {
+            consumer.accept(relations.get(relationPositions[i]));
+        }
+    }
+
+    /**
+     * Process objects which bounding box intersects with specified box: nodes inside box, ways and relations
+     * crossed or covered by box. Bounding boxes of ways and relations are calculated by existing nodes only.
+     * Spatial index is built on the first call if it was not built before.
+     */
+    public void inBox(BoundingBox box, Consumer<IOsmObject> consumer) {
+        SpatialIndex index = spatialIndex;
+        if (index == null) {
+            buildSpatialIndex();
+            index = spatialIndex;
+        }
+        index.nodes.query(box.minLat, box.maxLat, box.minLon, box.maxLon,
+                p -> consumer.accept(getNodeByPosition(p)));
+        index.ways.query(box.minLat, box.maxLat, box.minLon, box.maxLon,
+                p -> consumer.accept(new OsmWay(this, p)));
+        index.relations.query(box.minLat, box.maxLat, box.minLon, box.maxLon,
+                p -> consumer.accept(relations.get(p)));
+    }
+
     /**
      * Process all objects.
      */
     public void all(Predicate<IOsmObject> predicate, Consumer<IOsmObject> consumer) {
-        for (int i = 0; i < nodes.size(); i++) {
-            IOsmNode n = nodes.get(i);
+        for (int i = 0; i < nodeCount; i++) {
+            IOsmNode n = new OsmNode(this, i);
             if (predicate.test(n)) {
                 consumer.accept(n);
             }
         }
-        for (int i = 0; i < ways.size(); i++) {
-            IOsmWay w = ways.get(i);
+        for (int i = 0; i < wayCount; i++) {
+            IOsmWay w = new OsmWay(this, i);
             if (predicate.test(w)) {
                 consumer.accept(w);
             }
@@ -445,4 +1345,137 @@ public class MemoryStorage {
             }
         }, consumer);
     }
+
+    /**
+     * Process objects with specific tag by common pool. Consumer is called from many threads.
+     */
+    public void parallelByTag(String tagName, Consumer<IOsmObject> consumer) {
+        parallelByTag(tagName, ForkJoinPool.commonPool(), consumer);
+    }
+
+    /**
+     * Process objects with specific tag by threads of pool. Consumer is called from many threads, see
+     * {@link ParallelCollector} for collect results. Uses tag index if it was built by
+     * {@link #buildTagIndex()}.
+     */
+    public void parallelByTag(String tagName, ForkJoinPool pool, Consumer<IOsmObject> consumer) {
+        int tagKey = tagsPack.findTagCode(tagName);
+        if (tagKey == StringPack.NOT_FOUND) {
+            return;
+        }
+        TagKeyIndex nodeIndex = nodeTagIndex, wayIndex = wayTagIndex, relationIndex = relationTagIndex;
+        if (nodeIndex != null) {
+            int nodeFrom = nodeIndex.from(tagKey), wayFrom = wayIndex.from(tagKey);
+            int relationFrom = relationIndex.from(tagKey);
+            ParallelScan.run(pool, nodeIndex.to(tagKey) - nodeFrom,
+                    i -> consumer.accept(new OsmNode(this, nodeIndex.positions[nodeFrom + i])),
+                    wayIndex.to(tagKey) - wayFrom,
+                    i -> consumer.accept(new OsmWay(this, wayIndex.positions[wayFrom + i])),
+                    relationIndex.to(tagKey) - relationFrom,
+                    i -> consumer.accept(relations.get(relationIndex.positions[relationFrom + i])));
+            return;
+        }
+        ParallelScan.run(pool, nodeCount, i -> {
+            if (nodeTags.hasTag(i, tagKey)) {
+                consumer.accept(new OsmNode(this, i));
+            }
+        }, wayCount, i -> {
+            if (wayTags.hasTag(i, tagKey)) {
+                consumer.accept(new OsmWay(this, i));
+            }
+        }, relations.size(), i -> {
+            IOsmRelation r = relations.get(i);
+            if (r.hasTag(tagKey)) {
+                consumer.accept(r);
+            }
+        });
+    }
+
+    /**
+     * Process all objects by common pool. Consumer is called from many threads.
+     */
+    public void parallelAll(Predicate<IOsmObject> predicate, Consumer<IOsmObject> consumer) {
+        parallelAll(ForkJoinPool.commonPool(), predicate, consumer);
+    }
+
+    /**
+     * Process all objects by threads of pool. Predicate and consumer are called from many threads, see
+     * {@link ParallelCollector} for collect results.
+     */
+    public void parallelAll(ForkJoinPool pool, Predicate<IOsmObject> predicate,
+            Consumer<IOsmObject> consumer) {
+        ParallelScan.run(pool, nodeCount, i -> {
+            IOsmNode n = new OsmNode(this, i);
+            if (predicate.test(n)) {
+                consumer.accept(n);
+            }
+        }, wayCount, i -> {
+            IOsmWay w = new OsmWay(this, i);
+            if (predicate.test(w)) {
+                consumer.accept(w);
+            }
+        }, relations.size(), i -> {
+            IOsmRelation r = relations.get(i);
+            if (predicate.test(r)) {
+                consumer.accept(r);
+            }
+        });
+    }
+
+    /**
+     * Stream of all nodes: simple nodes in ID order, then nodes with tags in ID order. Storage should not be
+     * updated while stream is processed. Call parallel() for parallel processing.
+     */
+    public Stream<IOsmNode> nodeStream() {
+        int simpleCount = simpleNodeCount;
+        IntFunction<IOsmNode> creator = i -> i < simpleCount ? new OsmSimpleNode(this, i) : new OsmNode(this,
+                i - simpleCount);
+        return StreamSupport.stream(new IndexSpliterator<>(0, simpleCount + nodeCount, creator), false);
+    }
+
+    /**
+     * Stream of all ways in ID order.
+     */
+    public Stream<IOsmWay> wayStream() {
+        return StreamSupport.stream(new IndexSpliterator<>(0, wayCount, i -> new OsmWay(this, i)), false);
+    }
+
+    /**
+     * Stream of all relations in ID order.
+     */
+    public Stream<IOsmRelation> relationStream() {
+        return StreamSupport.stream(new IndexSpliterator<>(0, relations.size(), relations::get), false);
+    }
+
+    /**
+     * IDs of all nodes in the same order like {@link #nodeStream()}, without node objects creation.
+     */
+    public LongStream nodeIdStream() {
+        return LongStream.concat(Arrays.stream(simpleNodeIds, 0, simpleNodeCount),
+                Arrays.stream(nodeIds, 0, nodeCount));
+    }
+
+    /**
+     * Latitudes of all nodes in the same order like {@link #nodeStream()}.
+     */
+    public IntStream nodeLatStream() {
+        return IntStream.concat(Arrays.stream(simpleNodeLats, 0, simpleNodeCount),
+                Arrays.stream(nodeLats, 0, nodeCount));
+    }
+
+    /**
+     * Longitudes of all nodes in the same order like {@link #nodeStream()}.
+     */
+    public IntStream nodeLonStream() {
+        return IntStream.concat(Arrays.stream(simpleNodeLons, 0, simpleNodeCount),
+                Arrays.stream(nodeLons, 0, nodeCount));
+    }
+
+    public LongStream wayIdStream() {
+        return Arrays.stream(wayIds, 0, wayCount);
+    }
+
+    public LongStream relationIdStream() {
+        return IntStream.range(0, relations.size()).mapToLong(i -> relations.get(i).getId());
+    }
 }
@@ -0,0 +1,119 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+/**
+ * Reusable pointer to node in storage. It allows to read node coordinates without creation of node object for
+ * each node, that is important for process of millions nodes.
+ *
+ * Cursor is not thread-safe, i.e. each thread should use own cursor. Cursor is valid only until storage
+ * update.
+ */
+public class NodeCursor {
+    private final MemoryStorage storage;
+    private int position = MemoryStorage.NODE_POSITION_MISSING;
+
+    public NodeCursor(MemoryStorage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Move to node by ID.
+     *
+     * @return false if there is no such node
+     */
+    public boolean moveToId(long id) {
+        position = storage.getNodePosition(id);
+        return position != MemoryStorage.NODE_POSITION_MISSING;
+    }
+
+    /**
+     * Move to node by position, see {@link MemoryStorage#getNodePosition(long)}.
+     *
+     * @return false if position is NODE_POSITION_MISSING
+     */
+    public boolean moveToPosition(int position) {
+        this.position = position;
+        return position != MemoryStorage.NODE_POSITION_MISSING;
+    }
+
+    /**
+     * Returns true if cursor points to existing node.
+     */
+    public boolean isDefined() {
+        return position != MemoryStorage.NODE_POSITION_MISSING;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Get node ID. Cursor should point to existing node, see {@link #isDefined()}.
+     */
+    public long getId() {
+        checkDefined();
+        return storage.getNodeIdByPosition(position);
+    }
+
+    /**
+     * Get latitude as int, i.e. multiplied by 10000000. Cursor should point to existing node.
+     */
+    public int getLat() {
+        checkDefined();
+        return storage.getNodeLatByPosition(position);
+    }
+
+    /**
+     * Get longitude as int, i.e. multiplied by 10000000. Cursor should point to existing node.
+     */
+    public int getLon() {
+        checkDefined();
+        return storage.getNodeLonByPosition(position);
+    }
+
+    public double getLatitude() {
+        return getLat() * IOsmNode.DIVIDER;
+    }
+
+    public double getLongitude() {
+        return getLon() * IOsmNode.DIVIDER;
+    }
+
+    /**
+     * Returns true if node has tags, i.e. it's not a simple node.
+     */
+    public boolean hasTags() {
+        return position < MemoryStorage.NODE_POSITION_MISSING;
+    }
+
+    /**
+     * Create node object for current position, or returns null if there is no node.
+     */
+    public IOsmNode getNode() {
+        return storage.getNodeByPosition(position);
+    }
+
+    private void checkDefined() {
+        if (position == MemoryStorage.NODE_POSITION_MISSING) {
+            throw new IllegalStateException("Cursor doesn't point to node");
+        }
+    }
+}
@@ -21,15 +21,22 @@ package org.alex73.osmemory;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Driver for o5m read. Format described at the http://wiki.openstreetmap.org/wiki/O5m.
+ *
+ * File is mapped into memory by windows, that allows to read files larger than 2 GiB. Each dataset is always
+ * placed into window entirely, and strings from string table are copied, so they are available after window
+ * change. Stream is read the same way, but into buffer that refilled from stream.
  */
 public class O5MDriver {
     public static final Charset UTF8 = Charset.forName("UTF-8");
@@ -46,9 +53,24 @@ public class O5MDriver {
     public static final byte MARK_DATASET_SYNC = (byte) 0xEE;
     public static final byte MARK_DATASET_JUMP = (byte) 0xEF;
 
+    // max length of dataset type and dataset length number
+    private static final int DATASET_HEADER_MAX_SIZE = 11;
+    // size of string table slot: max 250 bytes of strings and 2 zero bytes
+    private static final int STRING_SLOT_SIZE = 256;
+
     final O5MReader handler;
     private ByteBuffer buffer;
 
+    int windowSize = 256 * 1024 * 1024;
+    int streamBufferSize = 4 * 1024 * 1024;
+    private FileChannel channel;
+    // file position of the window start
+    private long windowStart;
+    // file position for stop reading
+    private long rangeEnd;
+    private ReadableByteChannel input;
+    private boolean inputEnd;
+
     private DeltaCoder deltaId = new DeltaCoder();
     private DeltaCoder deltaTimestamp = new DeltaCoder();
     private DeltaCoder deltaChangeset = new DeltaCoder();
@@ -63,6 +85,12 @@ public class O5MDriver {
     private int[] stringPairFirstSizes = new int[15001];
     private int[] stringPairSecondSizes = new int[15001];
     int stringPairPos;
+    /**
+     * Copies of strings. Each string pair from table stored in own slot. Longer strings that are not stored in
+     * table are placed after slots, only until the end of dataset.
+     */
+    private byte[] strings = new byte[stringPairPositions.length * STRING_SLOT_SIZE + 4096];
+    private int longStringsPos;
 
     private int datasetEndPos;
     private int objectTagsCount;
@@ -99,53 +127,186 @@ public class O5MDriver {
 
     public void read(File file) throws Exception {
         handler.fileTimestamp(file.lastModified());
-        try (RandomAccessFile aFile = new RandomAccessFile(file, "r")) {
-            try (FileChannel inChannel = aFile.getChannel()) {
-                buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, 0, file.length());
-                buffer.order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel ch = open(file)) {
+            read(ch, 1, ch.size());
+        }
+    }
 
-                if (buffer.get() != MARK_BOF) {
-                    throw new IOException("This is not a .o5m file");
-                }
-                while (buffer.remaining() > 0) {
-                    byte datasetType = buffer.get();
-                    if (datasetType == MARK_RESET) {
-                        resetDeltas();
-                        continue;
-                    }
-                    if (datasetType == MARK_EOF && buffer.remaining() == 0) {
-                        break;
-                    }
-                    long datasetLength = readUnsignedNumberAbsolute();
-                    datasetEndPos = (int) (buffer.position() + datasetLength);
-                    switch (datasetType) {
-                    case MARK_DATASET_HEADER:
-                        // should follow the first 0xff in the file; contents: 0x04 0x6f 0x35 0x6d 0x32
-                        // ("o5m2"),
-                        // or 0x04 0x6f 0x35 0x63 0x32 ("o5c2") for .o5m change files
-                        break;
-                    case MARK_DATASET_FILETIMESTAMP:
-                        readTimestamp();
-                        break;
-                    case MARK_DATASET_BOUNDINGBOX:
-                        break;
-                    case MARK_DATASET_NODE:
-                        readNode();
-                        break;
-                    case MARK_DATASET_WAY:
-                        readWay();
-                        break;
-                    case MARK_DATASET_RELATION:
-                        readRelation();
-                        break;
-                    default:
-                        throw new RuntimeException("Unknown dataset : " + Integer.toHexString(datasetType));
-                    }
-                    objectTagsCount = 0;
-                    buffer.position(datasetEndPos);
+    /**
+     * Read from stream, like output of osmconvert or osmupdate, without temporary file.
+     */
+    public void read(ReadableByteChannel input) throws IOException {
+        this.input = input;
+        buffer = ByteBuffer.allocate(streamBufferSize);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.limit(0);
+        require(1);
+        if (!buffer.hasRemaining() || buffer.get() != MARK_BOF) {
+            throw new IOException("This is not a .o5m stream");
+        }
+        readDatasets();
+    }
+
+    /**
+     * Open file and check that it's o5m.
+     */
+    static FileChannel open(File file) throws IOException {
+        FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        ByteBuffer bof = ByteBuffer.allocate(1);
+        if (ch.read(bof, 0) != 1 || bof.get(0) != MARK_BOF) {
+            ch.close();
+            throw new IOException("This is not a .o5m file");
+        }
+        return ch;
+    }
+
+    /**
+     * Find parts of file between reset marks. Each part can be read separately, because all deltas and string
+     * table are reset at the beginning of part.
+     *
+     * @return start and end positions of parts
+     */
+    List<long[]> splitByResets(FileChannel channel) throws IOException {
+        this.channel = channel;
+        rangeEnd = channel.size();
+        map(1, 0);
+        List<long[]> result = new ArrayList<>();
+        long start = 1;
+        while (true) {
+            require(DATASET_HEADER_MAX_SIZE);
+            if (!buffer.hasRemaining()) {
+                break;
+            }
+            long pos = windowStart + buffer.position();
+            byte datasetType = buffer.get();
+            if (datasetType == MARK_RESET) {
+                if (pos > start) {
+                    result.add(new long[] { start, pos });
                 }
+                start = pos + 1;
+                continue;
+            }
+            if (datasetType == MARK_EOF && !buffer.hasRemaining()) {
+                break;
+            }
+            long datasetLength = readUnsignedNumberAbsolute();
+            long next = windowStart + buffer.position() + datasetLength;
+            if (next <= windowStart + buffer.limit()) {
+                buffer.position((int) (next - windowStart));
+            } else {
+                map(next, 0);
+            }
+        }
+        if (rangeEnd > start) {
+            result.add(new long[] { start, rangeEnd });
+        }
+        return result;
+    }
+
+    /**
+     * Read part of file from start to end. It can be full file after BOF mark, or part found by
+     * {@link #splitByResets(FileChannel)}.
+     */
+    void read(FileChannel channel, long start, long end) throws IOException {
+        this.channel = channel;
+        rangeEnd = end;
+        map(start, 0);
+        readDatasets();
+    }
+
+    /**
+     * Map window from specified file position. Window will contain at least 'required' bytes if file has them.
+     */
+    private void map(long start, int required) throws IOException {
+        long size = Math.min(Math.max(windowSize, required), rangeEnd - start);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        windowStart = start;
+    }
+
+    /**
+     * Move window or refill buffer from stream if there are less than 'count' bytes after current position, and
+     * file has more data.
+     */
+    private void require(int count) throws IOException {
+        if (buffer.remaining() >= count) {
+            return;
+        }
+        if (input != null) {
+            fill(count);
+        } else if (windowStart + buffer.limit() < rangeEnd) {
+            map(windowStart + buffer.position(), count);
+        }
+    }
+
+    /**
+     * Move rest of data to the beginning of buffer and read from stream at least to 'count' bytes, or until
+     * the end of stream.
+     */
+    private void fill(int count) throws IOException {
+        if (count > buffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(count, buffer.capacity() * 2));
+            larger.order(ByteOrder.LITTLE_ENDIAN);
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.compact();
+        }
+        while (buffer.position() < count && !inputEnd) {
+            if (input.read(buffer) < 0) {
+                inputEnd = true;
             }
         }
+        buffer.flip();
+    }
+
+    private void readDatasets() throws IOException {
+        while (true) {
+            require(DATASET_HEADER_MAX_SIZE);
+            if (!buffer.hasRemaining()) {
+                break;
+            }
+            byte datasetType = buffer.get();
+            if (datasetType == MARK_RESET) {
+                resetDeltas();
+                continue;
+            }
+            if (datasetType == MARK_EOF && buffer.remaining() == 0) {
+                break;
+            }
+            long datasetLength = readUnsignedNumberAbsolute();
+            if (datasetLength > Integer.MAX_VALUE - DATASET_HEADER_MAX_SIZE) {
+                throw new RuntimeException("Too long dataset: " + datasetLength);
+            }
+            require((int) datasetLength);
+            datasetEndPos = buffer.position() + (int) datasetLength;
+            longStringsPos = stringPairPositions.length * STRING_SLOT_SIZE;
+            switch (datasetType) {
+            case MARK_DATASET_HEADER:
+                // should follow the first 0xff in the file; contents: 0x04 0x6f 0x35 0x6d 0x32
+                // ("o5m2"),
+                // or 0x04 0x6f 0x35 0x63 0x32 ("o5c2") for .o5m change files
+                break;
+            case MARK_DATASET_FILETIMESTAMP:
+                readTimestamp();
+                break;
+            case MARK_DATASET_BOUNDINGBOX:
+                break;
+            case MARK_DATASET_NODE:
+                readNode();
+                break;
+            case MARK_DATASET_WAY:
+                readWay();
+                break;
+            case MARK_DATASET_RELATION:
+                readRelation();
+                break;
+            default:
+                throw new RuntimeException("Unknown dataset : " + Integer.toHexString(datasetType));
+            }
+            objectTagsCount = 0;
+            buffer.position(datasetEndPos);
+        }
     }
 
     void readTimestamp() {
@@ -156,11 +317,13 @@ public class O5MDriver {
         currentId = readSignedNumber(deltaId);
 
         if (buffer.position() >= datasetEndPos) {
+            handler.deleteNode(this, currentId);
             return;
         }
         readVersion();
 
         if (buffer.position() >= datasetEndPos) {
+            handler.deleteNode(this, currentId);
             return;
         }
         int longitude = readSignedNumberInt(deltaLongitude);
@@ -176,11 +339,13 @@ public class O5MDriver {
         currentId = readSignedNumber(deltaId);
 
         if (buffer.position() >= datasetEndPos) {
+            handler.deleteWay(this, currentId);
             return;
         }
         readVersion();
 
         if (buffer.position() >= datasetEndPos) {
+            handler.deleteWay(this, currentId);
             return;
         }
 
@@ -196,18 +361,20 @@ public class O5MDriver {
         while (buffer.position() < datasetEndPos) {
             readObjectTag();
         }
-        handler.createWay(this, currentId, Arrays.copyOf(nodes, c), currentUser);
+        handler.createWay(this, currentId, nodes, c, currentUser);
     }
 
     void readRelation() {
         currentId = readSignedNumber(deltaId);
 
         if (buffer.position() >= datasetEndPos) {
+            handler.deleteRelation(this, currentId);
             return;
         }
         readVersion();
 
         if (buffer.position() >= datasetEndPos) {
+            handler.deleteRelation(this, currentId);
             return;
         }
 
@@ -363,7 +530,7 @@ public class O5MDriver {
         }
         memberRolePositions[i] = stringPairPositions[pairPos] + 1;
         memberRoleSizes[i] = stringPairFirstSizes[pairPos] - 1;
-        switch (buffer.get(stringPairPositions[pairPos])) {
+        switch (strings[stringPairPositions[pairPos]]) {
         case '0':
             return OsmNode.TYPE_NODE;
         case '1':
@@ -407,7 +574,7 @@ public class O5MDriver {
     }
 
     void storeStringPair(int pos) {
-        stringPairPositions[pos] = buffer.position();
+        int start = buffer.position();
         int p1 = 0;
         while (buffer.get() != 0) {
             p1++;
@@ -418,16 +585,39 @@ public class O5MDriver {
         }
         stringPairFirstSizes[pos] = p1;
         stringPairSecondSizes[pos] = p2;
+        copyString(pos, start, p1 + p2 <= 250);
     }
 
     void storeStringOnes(int pos) {
-        stringPairPositions[pos] = buffer.position();
+        int start = buffer.position();
         int p1 = 0;
         while (buffer.get() != 0) {
             p1++;
         }
         stringPairFirstSizes[pos] = p1;
         stringPairSecondSizes[pos] = 0;
+        copyString(pos, start, p1 <= 250);
+    }
+
+    /**
+     * Copy strings from buffer into own slot if they will be stored in table, or after slots otherwise.
+     */
+    private void copyString(int pos, int start, boolean inTable) {
+        int end = buffer.position();
+        int len = end - start;
+        int to;
+        if (inTable) {
+            to = pos * STRING_SLOT_SIZE;
+        } else {
+            to = longStringsPos;
+            longStringsPos += len;
+            if (longStringsPos > strings.length) {
+                strings = Arrays.copyOf(strings, longStringsPos + strings.length / 2);
+            }
+        }
+        stringPairPositions[pos] = to;
+        buffer.position(start);
+        buffer.get(strings, to, len);
     }
 
     void skip(long count) {
@@ -448,6 +638,13 @@ public class O5MDriver {
         return getBytes(objectTagValuePositions[pos], objectTagValueSizes[pos]);
     }
 
+    /**
+     * Get tag value bytes, shared with other objects if key has not so many values.
+     */
+    byte[] getObjectTagValueBytes(int pos, ValuePack values, int key) {
+        return values.intern(key, strings, objectTagValuePositions[pos], objectTagValueSizes[pos]);
+    }
+
     String getMemberRoleString(int pos) {
         return getString(memberRolePositions[pos], memberRoleSizes[pos]);
     }
@@ -457,26 +654,11 @@ public class O5MDriver {
     }
 
     String getString(int pos, int len) {
-        int p = buffer.position();
-
-        buffer.position(pos);
-        byte[] result = new byte[len];
-        buffer.get(result);
-
-        buffer.position(p);
-
-        return new String(result, UTF8);
+        return new String(strings, pos, len, UTF8);
     }
 
     byte[] getBytes(int pos, int len) {
-        int p = buffer.position();
-
-        buffer.position(pos);
-        byte[] result = new byte[len];
-        buffer.get(result);
-
-        buffer.position(p);
-        return result;
+        return Arrays.copyOfRange(strings, pos, pos + len);
     }
 
     static class DeltaCoder {
@@ -20,7 +20,16 @@
 package org.alex73.osmemory;
 
 import java.io.File;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.ToLongFunction;
 
 import com.vividsolutions.jts.geom.Envelope;
 
@@ -46,17 +55,159 @@ public class O5MReader extends BaseReader {
         super(storage, new Envelope(minLon, maxLon, minLat, maxLat));
     }
 
+    /**
+     * Reader for part of file while parallel read.
+     */
+    private O5MReader(O5MReader main) {
+        this(main, new MemoryStorage(main.storage));
+    }
+
+    /**
+     * Reader with the same crop box into other storage.
+     */
+    private O5MReader(O5MReader main, MemoryStorage storage) {
+        super(storage, null);
+        minx = main.minx;
+        maxx = main.maxx;
+        miny = main.miny;
+        maxy = main.maxy;
+    }
+
     public MemoryStorage read(File file) throws Exception {
         new O5MDriver(this).read(file);
         storage.finishLoading();
         return storage;
     }
 
+    /**
+     * Read o5m from stream, for example from pipe of osmconvert or osmupdate output.
+     */
+    public MemoryStorage read(InputStream in) throws Exception {
+        new O5MDriver(this).read(Channels.newChannel(in));
+        storage.finishLoading();
+        return storage;
+    }
+
+    /**
+     * Apply o5c change file, like output of osmupdate, to the storage. Objects without data after version are
+     * deleted, other objects are added or replaced. Nodes outside of crop box and ways without known nodes
+     * are removed. Changes are applied by one merge pass over storage arrays, with separate pass for nodes
+     * before ways.
+     */
+    public void applyChanges(File file) throws Exception {
+        ChangeReader reader = new ChangeReader(this);
+        new O5MDriver(reader).read(file);
+        storage.applyChanges(reader.batch);
+    }
+
+    /**
+     * Apply o5c changes from stream.
+     */
+    public void applyChanges(InputStream in) throws Exception {
+        ChangeReader reader = new ChangeReader(this);
+        new O5MDriver(reader).read(Channels.newChannel(in));
+        storage.applyChanges(reader.batch);
+    }
+
+    /**
+     * Read file by many threads. File is split into parts between reset marks, then parts are decoded in
+     * parallel into separate storages and merged in ID order. Ways are checked for known nodes after merge of
+     * all nodes.
+     *
+     * It's faster than {@link #read(File)} only if file contains many reset marks.
+     */
+    public MemoryStorage read(File file, ForkJoinPool pool) throws Exception {
+        fileTimestamp(file.lastModified());
+        List<MemoryStorage> parts = new ArrayList<>();
+        try (FileChannel channel = O5MDriver.open(file)) {
+            List<ForkJoinTask<MemoryStorage>> tasks = new ArrayList<>();
+            for (long[] part : new O5MDriver(this).splitByResets(channel)) {
+                tasks.add(pool.submit(() -> {
+                    PartReader reader = new PartReader(this);
+                    new O5MDriver(reader).read(channel, part[0], part[1]);
+                    return reader.storage;
+                }));
+            }
+            for (ForkJoinTask<MemoryStorage> task : tasks) {
+                parts.add(task.get());
+            }
+        }
+
+        parts.sort(Comparator.comparingLong(O5MReader::firstNodeId));
+        checkOrder(parts, O5MReader::firstNodeId, O5MReader::lastNodeId, "Nodes");
+        storage.ensureNodesCapacity(parts.stream().mapToInt(p -> p.simpleNodeCount).sum(),
+                parts.stream().mapToInt(p -> p.nodeCount).sum());
+        for (MemoryStorage part : parts) {
+            storage.appendNodes(part);
+        }
+        parts.sort(Comparator.comparingLong(p -> p.wayCount > 0 ? p.wayIds[0] : Long.MAX_VALUE));
+        checkOrder(parts, p -> p.wayCount > 0 ? p.wayIds[0] : Long.MAX_VALUE,
+                p -> p.wayCount > 0 ? p.wayIds[p.wayCount - 1] : Long.MIN_VALUE, "Ways");
+        for (MemoryStorage part : parts) {
+            for (int i = 0; i < part.wayCount; i++) {
+                if (isWayInside(part.wayNodes, part.wayNodesOffsets[i], part.wayNodesCounts[i])) {
+                    storage.appendWay(part, i);
+                }
+            }
+        }
+        parts.sort(Comparator.comparingLong(p -> p.relations.isEmpty() ? Long.MAX_VALUE : p.relations.get(0)
+                .getId()));
+        checkOrder(parts, p -> p.relations.isEmpty() ? Long.MAX_VALUE : p.relations.get(0).getId(),
+                p -> p.relations.isEmpty() ? Long.MIN_VALUE : p.relations.get(p.relations.size() - 1).getId(),
+                "Relations");
+        for (MemoryStorage part : parts) {
+            storage.appendRelations(part);
+        }
+
+        storage.finishLoading();
+        return storage;
+    }
+
+    /**
+     * Parts are just concatenated, so ID ranges of sorted parts can't overlap. It's possible only for file
+     * which is not sorted by ID, but such file can't be read by {@link #read(File)} too.
+     */
+    private static void checkOrder(List<MemoryStorage> parts, ToLongFunction<MemoryStorage> first,
+            ToLongFunction<MemoryStorage> last, String what) throws Exception {
+        long prevLast = Long.MIN_VALUE;
+        for (MemoryStorage part : parts) {
+            if (first.applyAsLong(part) == Long.MAX_VALUE) {
+                continue;
+            }
+            if (first.applyAsLong(part) <= prevLast) {
+                throw new Exception(what + " must be ordered by ID, but parts between reset marks overlap");
+            }
+            prevLast = last.applyAsLong(part);
+        }
+    }
+
+    private static long firstNodeId(MemoryStorage part) {
+        long simple = part.simpleNodeCount > 0 ? part.simpleNodeIds[0] : Long.MAX_VALUE;
+        long tagged = part.nodeCount > 0 ? part.nodeIds[0] : Long.MAX_VALUE;
+        return Math.min(simple, tagged);
+    }
+
+    private static long lastNodeId(MemoryStorage part) {
+        long simple = part.simpleNodeCount > 0 ? part.simpleNodeIds[part.simpleNodeCount - 1]
+                : Long.MIN_VALUE;
+        long tagged = part.nodeCount > 0 ? part.nodeIds[part.nodeCount - 1] : Long.MIN_VALUE;
+        return Math.max(simple, tagged);
+    }
+
     protected void applyTags(O5MDriver driver, OsmBase obj) {
         for (int i = 0; i < driver.getObjectTagsCount(); i++) {
-            obj.tagKeys[i] = storage.getTagsPack().getTagCode(driver.getObjectTagKeyString(i));
-            obj.tagValues[i] = driver.getObjectTagValueBytes(i);
+            int key = storage.getTagsPack().getTagCode(driver.getObjectTagKeyString(i));
+            obj.tagKeys[i] = key;
+            obj.tagValues[i] = driver.getObjectTagValueBytes(i, storage.getValuesPack(), key);
+        }
+    }
+
+    protected void applyTags(O5MDriver driver, TagsStore tags) {
+        for (int i = 0; i < driver.getObjectTagsCount(); i++) {
+            int key = storage.getTagsPack().getTagCode(driver.getObjectTagKeyString(i));
+            tags.addTag(key, driver.getObjectTagValueBytes(i, storage.getValuesPack(), key));
         }
+        tags.endObject();
     }
 
     /**
@@ -82,10 +233,9 @@ public class O5MReader extends BaseReader {
         }
 
         if (driver.getObjectTagsCount() > 0) {
-            short userCode = storage.getUsersPack().getTagCode(user);
-            OsmNode result = new OsmNode(id, driver.getObjectTagsCount(), lat, lon, userCode);
-            applyTags(driver, result);
-            storage.nodes.add(result);
+            int userCode = storage.getUsersPack().getTagCode(user);
+            storage.appendNode(id, lat, lon, userCode);
+            applyTags(driver, storage.nodeTags);
         } else {
             if (storage.simpleNodeCount >= storage.simpleNodeIds.length) {
                 // extend
@@ -106,33 +256,154 @@ public class O5MReader extends BaseReader {
     /**
      * Add ways that contains known nodes, i.e. inside specified crop box.
      */
-    protected void createWay(O5MDriver driver, long id, long[] nodes, String user) {
-        short userCode = storage.getUsersPack().getTagCode(user);
-        OsmWay result = new OsmWay(id, driver.getObjectTagsCount(), nodes, userCode);
-        boolean inside = false;
-        for (int i = 0; i < nodes.length; i++) {
-            if (storage.getNodeById(nodes[i]) != null) {
-                inside = true;
-                break;
-            }
+    protected void createWay(O5MDriver driver, long id, long[] nodes, int nodesCount, String user) {
+        if (isWayInside(nodes, 0, nodesCount)) {
+            int userCode = storage.getUsersPack().getTagCode(user);
+            storage.appendWay(id, userCode, nodes, nodesCount);
+            applyTags(driver, storage.wayTags);
         }
-        if (inside) {
-            applyTags(driver, result);
-            storage.ways.add(result);
+    }
+
+    /**
+     * Way is inside if storage contains at least one node of way.
+     */
+    protected boolean isWayInside(long[] nodes, int from, int count) {
+        for (int i = from; i < from + count; i++) {
+            if (storage.getNodePosition(nodes[i]) != MemoryStorage.NODE_POSITION_MISSING) {
+                return true;
+            }
         }
+        return false;
     }
 
     /**
      * Add all relations.
      */
     protected void createRelation(O5MDriver driver, long id, long[] memberIds, byte[] memberTypes, String user) {
-        short userCode = storage.getUsersPack().getTagCode(user);
+        storage.relations.add(relation(driver, id, memberIds, memberTypes, user));
+    }
+
+    OsmRelation relation(O5MDriver driver, long id, long[] memberIds, byte[] memberTypes, String user) {
+        int userCode = storage.getUsersPack().getTagCode(user);
         OsmRelation result = new OsmRelation(id, driver.getObjectTagsCount(), memberIds, memberTypes,
                 userCode);
         for (int i = 0; i < result.memberRoles.length; i++) {
             result.memberRoles[i] = storage.getRelationRolesPack().getTagCode(driver.getMemberRoleString(i));
         }
         applyTags(driver, result);
-        storage.relations.add(result);
+        return result;
+    }
+
+    /**
+     * Objects without data are deleted objects in o5c files. They are skipped while loading.
+     */
+    protected void deleteNode(O5MDriver driver, long id) {
+    }
+
+    protected void deleteWay(O5MDriver driver, long id) {
+    }
+
+    protected void deleteRelation(O5MDriver driver, long id) {
+    }
+
+    /**
+     * Reader for o5c changes. Objects are collected into batch and merged into sorted storage instead append.
+     */
+    private static class ChangeReader extends O5MReader {
+        private final O5MReader main;
+        final ChangeBatch batch = new ChangeBatch();
+
+        ChangeReader(O5MReader main) {
+            super(main, main.storage);
+            this.main = main;
+        }
+
+        @Override
+        protected void fileTimestamp(long timestamp) {
+            main.fileTimestamp(timestamp);
+        }
+
+        @Override
+        protected void createNode(O5MDriver driver, long id, int lat, int lon, String user) {
+            if (lat > 900000000 || lat < -900000000) {
+                throw new RuntimeException("Wrong value for latitude: " + lat);
+            }
+            if (lon > 1800000000 || lon < -1800000000) {
+                throw new RuntimeException("Wrong value for longitude: " + lon);
+            }
+
+            if (!isInsideCropBox(lat, lon)) {
+                batch.removeNode(id);
+            } else if (driver.getObjectTagsCount() > 0) {
+                int userCode = storage.getUsersPack().getTagCode(user);
+                OsmNode n = new OsmNode(id, driver.getObjectTagsCount(), lat, lon, userCode);
+                applyTags(driver, n);
+                batch.addNode(n);
+            } else {
+                batch.addSimpleNode(id, lat, lon);
+            }
+        }
+
+        @Override
+        protected void createWay(O5MDriver driver, long id, long[] nodes, int nodesCount, String user) {
+            if (!batch.nodes.isEmpty()) {
+                // ways are checked against changed nodes
+                storage.applyChanges(batch);
+            }
+            if (isWayInside(nodes, 0, nodesCount)) {
+                int userCode = storage.getUsersPack().getTagCode(user);
+                OsmWay w = new OsmWay(id, driver.getObjectTagsCount(), Arrays.copyOf(nodes, nodesCount),
+                        userCode);
+                applyTags(driver, w);
+                batch.addWay(w);
+            } else {
+                batch.removeWay(id);
+            }
+        }
+
+        @Override
+        protected void createRelation(O5MDriver driver, long id, long[] memberIds, byte[] memberTypes,
+                String user) {
+            batch.addRelation(relation(driver, id, memberIds, memberTypes, user));
+        }
+
+        @Override
+        protected void deleteNode(O5MDriver driver, long id) {
+            batch.removeNode(id);
+        }
+
+        @Override
+        protected void deleteWay(O5MDriver driver, long id) {
+            batch.removeWay(id);
+        }
+
+        @Override
+        protected void deleteRelation(O5MDriver driver, long id) {
+            batch.removeRelation(id);
+        }
+    }
+
+    /**
+     * Reader for part of file. Ways are added without check, because not all nodes are known yet.
+     */
+    private static class PartReader extends O5MReader {
+        private final O5MReader main;
+
+        PartReader(O5MReader main) {
+            super(main);
+            this.main = main;
+        }
+
+        @Override
+        protected void fileTimestamp(long timestamp) {
+            main.fileTimestamp(timestamp);
+        }
+
+        @Override
+        protected void createWay(O5MDriver driver, long id, long[] nodes, int nodesCount, String user) {
+            int userCode = storage.getUsersPack().getTagCode(user);
+            storage.appendWay(id, userCode, nodes, nodesCount);
+            applyTags(driver, storage.wayTags);
+        }
     }
 }
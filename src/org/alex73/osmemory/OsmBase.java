@@ -20,6 +20,7 @@
 package org.alex73.osmemory;
 
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -30,13 +31,13 @@ public abstract class OsmBase implements IOsmObject {
     private static final Charset UTF8 = Charset.forName("UTF-8");
 
     protected final long id;
-    protected final short[] tagKeys;
+    protected final int[] tagKeys;
     protected final byte[][] tagValues;
-    protected final short user;
+    protected final int user;
 
-    public OsmBase(long id, int tagsCount, short user) {
+    public OsmBase(long id, int tagsCount, int user) {
         this.id = id;
-        tagKeys = new short[tagsCount];
+        tagKeys = new int[tagsCount];
         tagValues = new byte[tagsCount][];
         this.user = user;
     }
@@ -45,7 +46,7 @@ public abstract class OsmBase implements IOsmObject {
         return id;
     }
 
-    public boolean hasTag(short tagKey) {
+    public boolean hasTag(int tagKey) {
         for (int i = 0; i < tagKeys.length; i++) {
             if (tagKeys[i] == tagKey) {
                 return true;
@@ -56,17 +57,17 @@ public abstract class OsmBase implements IOsmObject {
 
     @Override
     public boolean hasTag(String tagName, MemoryStorage storage) {
-        short tagKey = storage.getTagsPack().getTagCode(tagName);
+        int tagKey = storage.getTagsPack().findTagCode(tagName);
         return hasTag(tagKey);
     }
 
     @Override
-    public short[] getTags() {
+    public int[] getTags() {
         return tagKeys;
     }
 
     @Override
-    public String getTag(short tagKey) {
+    public String getTag(int tagKey) {
         for (int i = 0; i < tagKeys.length; i++) {
             if (tagKeys[i] == tagKey) {
                 return new String(tagValues[i], UTF8);
@@ -77,10 +78,40 @@ public abstract class OsmBase implements IOsmObject {
 
     @Override
     public String getTag(String tagName, MemoryStorage storage) {
-        short tagKey = storage.getTagsPack().getTagCode(tagName);
+        int tagKey = storage.getTagsPack().findTagCode(tagName);
         return getTag(tagKey);
     }
 
+    /**
+     * Get stored bytes of tag value, or null if there is no such tag. Bytes should not be changed.
+     */
+    byte[] getTagBytes(int tagKey) {
+        for (int i = 0; i < tagKeys.length; i++) {
+            if (tagKeys[i] == tagKey) {
+                return tagValues[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean tagEquals(int tagKey, byte[] utf8Value) {
+        byte[] value = getTagBytes(tagKey);
+        return value != null && Arrays.equals(value, utf8Value);
+    }
+
+    @Override
+    public boolean tagStartsWith(int tagKey, byte[] utf8Prefix) {
+        byte[] value = getTagBytes(tagKey);
+        return value != null && TagMatcher.startsWith(value, utf8Prefix);
+    }
+
+    @Override
+    public CharSequence getTagChars(int tagKey) {
+        byte[] value = getTagBytes(tagKey);
+        return value != null ? new TagChars(value) : null;
+    }
+
     /**
      * Get all tags for object into map. This operation is not so fast, i.e. shouldn't be used for all object.
      */
@@ -94,7 +125,7 @@ public abstract class OsmBase implements IOsmObject {
     }
 
     @Override
-    public short getUser() {
+    public int getUser() {
         return user;
     }
 
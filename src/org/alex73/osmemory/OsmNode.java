@@ -29,12 +29,22 @@ public class OsmNode extends OsmBase implements IOsmNode {
      */
     private final int lat, lon;
 
-    public OsmNode(long id, int tagsCount, int lat, int lon, short user) {
+    public OsmNode(long id, int tagsCount, int lat, int lon, int user) {
         super(id, tagsCount, user);
         this.lat = lat;
         this.lon = lon;
     }
 
+    /**
+     * Create node from columnar storage.
+     */
+    public OsmNode(MemoryStorage storage, int pos) {
+        super(storage.nodeIds[pos], storage.nodeTags.getTagsCount(pos), storage.nodeUsers.get(pos));
+        this.lat = storage.nodeLats[pos];
+        this.lon = storage.nodeLons[pos];
+        storage.nodeTags.copyTo(pos, this);
+    }
+
     @Override
     public int getLat() {
         return lat;
@@ -25,20 +25,20 @@ package org.alex73.osmemory;
 public class OsmRelation extends OsmBase implements IOsmRelation {
     final long memberIDs[];
     final byte memberTypes[];
-    final short memberRoles[];
+    final int memberRoles[];
 
-    public OsmRelation(long id, int tagsCount, int memberCount, short user) {
+    public OsmRelation(long id, int tagsCount, int memberCount, int user) {
         super(id, tagsCount, user);
         memberIDs = new long[memberCount];
         memberTypes = new byte[memberCount];
-        memberRoles = new short[memberCount];
+        memberRoles = new int[memberCount];
     }
 
-    public OsmRelation(long id, int tagsCount, long[] memberIDs, byte[] memberTypes, short user) {
+    public OsmRelation(long id, int tagsCount, long[] memberIDs, byte[] memberTypes, int user) {
         super(id, tagsCount, user);
         this.memberIDs = memberIDs;
         this.memberTypes = memberTypes;
-        memberRoles = new short[memberIDs.length];
+        memberRoles = new int[memberIDs.length];
     }
 
     @Override
@@ -28,7 +28,7 @@ import java.util.Map;
  */
 public class OsmSimpleNode implements IOsmNode {
 
-    private final static short[] EMPTY_SHORT_LIST = new short[0];
+    private final static int[] EMPTY_INT_LIST = new int[0];
     private final long id;
 
     /**
@@ -68,7 +68,7 @@ public class OsmSimpleNode implements IOsmNode {
     }
 
     @Override
-    public boolean hasTag(short tagKey) {
+    public boolean hasTag(int tagKey) {
         return false;
     }
 
@@ -78,12 +78,12 @@ public class OsmSimpleNode implements IOsmNode {
     }
 
     @Override
-    public short[] getTags() {
-        return EMPTY_SHORT_LIST;
+    public int[] getTags() {
+        return EMPTY_INT_LIST;
     }
 
     @Override
-    public String getTag(short tagKey) {
+    public String getTag(int tagKey) {
         return null;
     }
 
@@ -92,6 +92,21 @@ public class OsmSimpleNode implements IOsmNode {
         return null;
     }
 
+    @Override
+    public boolean tagEquals(int tagKey, byte[] utf8Value) {
+        return false;
+    }
+
+    @Override
+    public boolean tagStartsWith(int tagKey, byte[] utf8Prefix) {
+        return false;
+    }
+
+    @Override
+    public CharSequence getTagChars(int tagKey) {
+        return null;
+    }
+
     @Override
     public Map<String, String> extractTags(MemoryStorage storage) {
         return Collections.emptyMap();
@@ -128,7 +143,7 @@ public class OsmSimpleNode implements IOsmNode {
     }
 
     @Override
-    public short getUser() {
+    public int getUser() {
         return -1;
     }
 
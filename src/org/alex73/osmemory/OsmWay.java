@@ -19,20 +19,62 @@
 
 package org.alex73.osmemory;
 
+import java.util.Arrays;
+
 /**
  * Way object representation.
  */
 public class OsmWay extends OsmBase implements IOsmWay {
+    /**
+     * Node IDs can be placed in the shared array of storage, from nodeIdsFrom, count nodeIdsCount.
+     */
     private final long[] nodeIds;
+    private final int nodeIdsFrom, nodeIdsCount;
 
-    public OsmWay(long id, int tagsCount, long[] nodeIds, short user) {
+    public OsmWay(long id, int tagsCount, long[] nodeIds, int user) {
         super(id, tagsCount, user);
         this.nodeIds = nodeIds;
+        this.nodeIdsFrom = 0;
+        this.nodeIdsCount = nodeIds.length;
+    }
+
+    /**
+     * Create way from columnar storage. Node IDs are not copied.
+     */
+    public OsmWay(MemoryStorage storage, int pos) {
+        super(storage.wayIds[pos], storage.wayTags.getTagsCount(pos), storage.wayUsers.get(pos));
+        this.nodeIds = storage.wayNodes;
+        this.nodeIdsFrom = storage.wayNodesOffsets[pos];
+        this.nodeIdsCount = storage.wayNodesCounts[pos];
+        storage.wayTags.copyTo(pos, this);
     }
 
     @Override
     public long[] getNodeIds() {
-        return nodeIds;
+        return Arrays.copyOfRange(nodeIds, nodeIdsFrom, nodeIdsFrom + nodeIdsCount);
+    }
+
+    @Override
+    public int getNodesCount() {
+        return nodeIdsCount;
+    }
+
+    @Override
+    public long getNodeId(int index) {
+        return nodeIds[nodeIdsFrom + index];
+    }
+
+    /**
+     * Get node position in storage, see {@link MemoryStorage#getNodePosition(long)}. Positions resolved by
+     * {@link MemoryStorage#resolveWayNodes()} are used only if storage was not changed after that and node
+     * IDs of this way are still in the storage array, otherwise node is searched by ID.
+     */
+    public int getNodePosition(MemoryStorage storage, int index) {
+        int[] positions = storage.wayNodePositions;
+        if (positions != null && storage.wayNodes == nodeIds) {
+            return positions[nodeIdsFrom + index];
+        }
+        return storage.getNodePosition(getNodeId(index));
     }
 
     @Override
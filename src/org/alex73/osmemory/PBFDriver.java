@@ -0,0 +1,622 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import static org.alex73.osmemory.ProtobufInput.WIRE_LENGTH;
+import static org.alex73.osmemory.ProtobufInput.WIRE_VARINT;
+import static org.alex73.osmemory.ProtobufInput.tag;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Driver for pbf read. Format described at the http://wiki.openstreetmap.org/wiki/PBF_Format.
+ *
+ * File is a sequence of blobs, that can be unpacked and decoded independently. Blobs are read from input by
+ * one thread, then each blob is unpacked and decoded by separate driver instance, so it can be done in
+ * parallel. Objects are passed to the handler with already known codes of tags, users and roles.
+ */
+class PBFDriver {
+    static final String BLOB_HEADER = "OSMHeader";
+    static final String BLOB_DATA = "OSMData";
+
+    // limits from format description
+    private static final int MAX_BLOB_HEADER_SIZE = 64 * 1024;
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+    private static final Set<String> SUPPORTED_FEATURES = new HashSet<>(Arrays.asList("OsmSchema-V0.6",
+            "DenseNodes"));
+
+    final PBFReader handler;
+    private final MemoryStorage storage;
+
+    // string table of block
+    private byte[] block;
+    private int[] stringPositions = new int[1024];
+    private int[] stringSizes = new int[1024];
+    private int stringsCount;
+    // codes for strings of block, or NOT_FOUND if not defined yet
+    private int[] keyCodes = new int[1024];
+    private int[] userCodes = new int[1024];
+    private int[] roleCodes = new int[1024];
+    private final int noUserCode;
+
+    private long granularity;
+    private long latOffset;
+    private long lonOffset;
+
+    int objectTagsCount;
+    int[] objectTagKeys = new int[256];
+    byte[][] objectTagValues = new byte[256][];
+    private long[] nodes = new long[8192];
+    private long[] memberIds = new long[8192];
+    private byte[] memberTypes = new byte[8192];
+    int[] memberRoles = new int[8192];
+
+    PBFDriver(PBFReader handler) {
+        this.handler = handler;
+        this.storage = handler.storage;
+        noUserCode = storage.getUsersPack().getTagCode(null);
+    }
+
+    /**
+     * Blob as stored in file, i.e. not unpacked yet.
+     */
+    static class Blob {
+        final String type;
+        final byte[] data;
+
+        Blob(String type, byte[] data) {
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Read next blob from input.
+     *
+     * @return blob, or null at the end of input
+     */
+    static Blob readBlob(DataInputStream in) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        int headerSize;
+        try {
+            headerSize = (first << 24) | (in.readUnsignedByte() << 16) | in.readUnsignedShort();
+        } catch (EOFException ex) {
+            throw new IOException("Unexpected end of pbf file");
+        }
+        if (headerSize < 0 || headerSize > MAX_BLOB_HEADER_SIZE) {
+            throw new IOException("This is not a .pbf file: wrong blob header size " + headerSize);
+        }
+        byte[] header = new byte[headerSize];
+        in.readFully(header);
+
+        String type = null;
+        int dataSize = -1;
+        ProtobufInput hin = new ProtobufInput(header, 0, header.length);
+        while (hin.hasMore()) {
+            int tag = hin.readTag();
+            switch (tag) {
+            case 1 << 3 | WIRE_LENGTH:
+                type = hin.readString();
+                break;
+            case 3 << 3 | WIRE_VARINT:
+                dataSize = hin.readVarint32();
+                break;
+            default:
+                hin.skip(tag);
+                break;
+            }
+        }
+        if (type == null || dataSize < 0 || dataSize > MAX_BLOB_SIZE) {
+            throw new IOException("This is not a .pbf file: wrong blob header");
+        }
+        byte[] data = new byte[dataSize];
+        in.readFully(data);
+        return new Blob(type, data);
+    }
+
+    /**
+     * Get unpacked content of blob. Only raw and zlib blobs are supported.
+     */
+    static byte[] unpack(Blob blob) throws IOException {
+        ProtobufInput in = new ProtobufInput(blob.data, 0, blob.data.length);
+        ProtobufInput raw = null, zlib = null;
+        int rawSize = -1;
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag) {
+            case 1 << 3 | WIRE_LENGTH:
+                raw = in.readMessage();
+                break;
+            case 2 << 3 | WIRE_VARINT:
+                rawSize = in.readVarint32();
+                break;
+            case 3 << 3 | WIRE_LENGTH:
+                zlib = in.readMessage();
+                break;
+            case 4 << 3 | WIRE_LENGTH:
+            case 5 << 3 | WIRE_LENGTH:
+            case 6 << 3 | WIRE_LENGTH:
+            case 7 << 3 | WIRE_LENGTH:
+                throw new IOException("Unsupported compression of pbf blob: only zlib is supported");
+            default:
+                in.skip(tag);
+                break;
+            }
+        }
+        if (raw != null) {
+            return Arrays.copyOfRange(raw.getBuffer(), raw.getPosition(), raw.getLimit());
+        }
+        if (zlib == null || rawSize < 0 || rawSize > MAX_BLOB_SIZE) {
+            throw new IOException("Wrong pbf blob");
+        }
+        byte[] result = new byte[rawSize];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(zlib.getBuffer(), zlib.getPosition(), zlib.getLimit() - zlib.getPosition());
+            int size = 0;
+            while (size < rawSize && !inflater.finished()) {
+                int n = inflater.inflate(result, size, rawSize - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += n;
+            }
+            if (size != rawSize) {
+                throw new IOException("Wrong pbf blob: unpacked size is " + size + " instead " + rawSize);
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Wrong pbf blob: " + ex.getMessage(), ex);
+        } finally {
+            inflater.end();
+        }
+        return result;
+    }
+
+    /**
+     * Check header block for required features and file timestamp.
+     */
+    void readHeader(byte[] data) throws IOException {
+        ProtobufInput in = new ProtobufInput(data, 0, data.length);
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag) {
+            case 4 << 3 | WIRE_LENGTH:
+                String feature = in.readString();
+                if (!SUPPORTED_FEATURES.contains(feature)) {
+                    throw new IOException("Unsupported pbf feature: " + feature);
+                }
+                break;
+            case 32 << 3 | WIRE_VARINT:
+                handler.fileTimestamp(in.readVarint() * 1000);
+                break;
+            default:
+                in.skip(tag);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Decode primitive block.
+     */
+    void readBlock(byte[] data) {
+        block = data;
+        stringsCount = 0;
+        granularity = 100;
+        latOffset = 0;
+        lonOffset = 0;
+        // string table and granularity can be placed after groups
+        List<ProtobufInput> groups = new ArrayList<>();
+        ProtobufInput in = new ProtobufInput(data, 0, data.length);
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag) {
+            case 1 << 3 | WIRE_LENGTH:
+                readStringTable(in.readMessage());
+                break;
+            case 2 << 3 | WIRE_LENGTH:
+                groups.add(in.readMessage());
+                break;
+            case 17 << 3 | WIRE_VARINT:
+                granularity = in.readVarint32();
+                break;
+            case 19 << 3 | WIRE_VARINT:
+                latOffset = in.readVarint();
+                break;
+            case 20 << 3 | WIRE_VARINT:
+                lonOffset = in.readVarint();
+                break;
+            default:
+                in.skip(tag);
+                break;
+            }
+        }
+        for (ProtobufInput group : groups) {
+            readGroup(group);
+        }
+    }
+
+    private void readStringTable(ProtobufInput in) {
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            if (tag == tag(1, WIRE_LENGTH)) {
+                ProtobufInput s = in.readMessage();
+                if (stringsCount >= stringPositions.length) {
+                    int newLength = stringPositions.length * 2;
+                    stringPositions = Arrays.copyOf(stringPositions, newLength);
+                    stringSizes = Arrays.copyOf(stringSizes, newLength);
+                    keyCodes = Arrays.copyOf(keyCodes, newLength);
+                    userCodes = Arrays.copyOf(userCodes, newLength);
+                    roleCodes = Arrays.copyOf(roleCodes, newLength);
+                }
+                stringPositions[stringsCount] = s.getPosition();
+                stringSizes[stringsCount] = s.getLimit() - s.getPosition();
+                stringsCount++;
+            } else {
+                in.skip(tag);
+            }
+        }
+        Arrays.fill(keyCodes, 0, stringsCount, StringPack.NOT_FOUND);
+        Arrays.fill(userCodes, 0, stringsCount, StringPack.NOT_FOUND);
+        Arrays.fill(roleCodes, 0, stringsCount, StringPack.NOT_FOUND);
+    }
+
+    private void readGroup(ProtobufInput in) {
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag) {
+            case 1 << 3 | WIRE_LENGTH:
+                readNode(in.readMessage());
+                break;
+            case 2 << 3 | WIRE_LENGTH:
+                readDenseNodes(in.readMessage());
+                break;
+            case 3 << 3 | WIRE_LENGTH:
+                readWay(in.readMessage());
+                break;
+            case 4 << 3 | WIRE_LENGTH:
+                readRelation(in.readMessage());
+                break;
+            default:
+                in.skip(tag);
+                break;
+            }
+        }
+    }
+
+    private void readNode(ProtobufInput in) {
+        long id = 0, lat = 0, lon = 0;
+        ProtobufInput keys = null, values = null;
+        int user = noUserCode;
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag) {
+            case 1 << 3 | WIRE_VARINT:
+                id = in.readSInt64();
+                break;
+            case 2 << 3 | WIRE_LENGTH:
+                keys = in.readMessage();
+                break;
+            case 3 << 3 | WIRE_LENGTH:
+                values = in.readMessage();
+                break;
+            case 4 << 3 | WIRE_LENGTH:
+                user = readInfoUser(in.readMessage());
+                break;
+            case 8 << 3 | WIRE_VARINT:
+                lat = in.readSInt64();
+                break;
+            case 9 << 3 | WIRE_VARINT:
+                lon = in.readSInt64();
+                break;
+            default:
+                in.skip(tag);
+                break;
+            }
+        }
+        readTags(keys, values);
+        handler.createNode(this, id, coordinate(latOffset, lat), coordinate(lonOffset, lon), user);
+    }
+
+    private void readDenseNodes(ProtobufInput in) {
+        ProtobufInput ids = null, lats = null, lons = null, keysValues = null, users = null;
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag) {
+            case 1 << 3 | WIRE_LENGTH:
+                ids = in.readMessage();
+                break;
+            case 5 << 3 | WIRE_LENGTH:
+                users = readDenseInfoUsers(in.readMessage());
+                break;
+            case 8 << 3 | WIRE_LENGTH:
+                lats = in.readMessage();
+                break;
+            case 9 << 3 | WIRE_LENGTH:
+                lons = in.readMessage();
+                break;
+            case 10 << 3 | WIRE_LENGTH:
+                keysValues = in.readMessage();
+                break;
+            default:
+                in.skip(tag);
+                break;
+            }
+        }
+        if (ids == null) {
+            return;
+        }
+        if (lats == null || lons == null) {
+            throw new RuntimeException("Wrong pbf data: dense nodes without coordinates");
+        }
+        long id = 0, lat = 0, lon = 0;
+        int userSid = 0;
+        while (ids.hasMore()) {
+            id += ids.readSInt64();
+            lat += lats.readSInt64();
+            lon += lons.readSInt64();
+            int user = noUserCode;
+            if (users != null && users.hasMore()) {
+                userSid += users.readSInt32();
+                user = userCode(userSid);
+            }
+            objectTagsCount = 0;
+            if (keysValues != null) {
+                while (keysValues.hasMore()) {
+                    int key = keysValues.readVarint32();
+                    if (key == 0) {
+                        break;
+                    }
+                    addTag(key, keysValues.readVarint32());
+                }
+            }
+            handler.createNode(this, id, coordinate(latOffset, lat), coordinate(lonOffset, lon), user);
+        }
+    }
+
+    /**
+     * Get packed user names array from DenseInfo.
+     */
+    private ProtobufInput readDenseInfoUsers(ProtobufInput in) {
+        ProtobufInput result = null;
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            if (tag == tag(5, WIRE_LENGTH)) {
+                result = in.readMessage();
+            } else {
+                in.skip(tag);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get user code from Info.
+     */
+    private int readInfoUser(ProtobufInput in) {
+        int result = noUserCode;
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            if (tag == tag(5, WIRE_VARINT)) {
+                result = userCode(in.readVarint32());
+            } else {
+                in.skip(tag);
+            }
+        }
+        return result;
+    }
+
+    private void readWay(ProtobufInput in) {
+        long id = 0;
+        ProtobufInput keys = null, values = null, refs = null;
+        int user = noUserCode;
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag) {
+            case 1 << 3 | WIRE_VARINT:
+                id = in.readVarint();
+                break;
+            case 2 << 3 | WIRE_LENGTH:
+                keys = in.readMessage();
+                break;
+            case 3 << 3 | WIRE_LENGTH:
+                values = in.readMessage();
+                break;
+            case 4 << 3 | WIRE_LENGTH:
+                user = readInfoUser(in.readMessage());
+                break;
+            case 8 << 3 | WIRE_LENGTH:
+                refs = in.readMessage();
+                break;
+            default:
+                in.skip(tag);
+                break;
+            }
+        }
+        readTags(keys, values);
+        int nodesCount = 0;
+        long ref = 0;
+        while (refs != null && refs.hasMore()) {
+            ref += refs.readSInt64();
+            if (nodesCount >= nodes.length) {
+                nodes = Arrays.copyOf(nodes, nodes.length * 2);
+            }
+            nodes[nodesCount++] = ref;
+        }
+        handler.createWay(this, id, nodes, nodesCount, user);
+    }
+
+    private void readRelation(ProtobufInput in) {
+        long id = 0;
+        ProtobufInput keys = null, values = null, roles = null, ids = null, types = null;
+        int user = noUserCode;
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag) {
+            case 1 << 3 | WIRE_VARINT:
+                id = in.readVarint();
+                break;
+            case 2 << 3 | WIRE_LENGTH:
+                keys = in.readMessage();
+                break;
+            case 3 << 3 | WIRE_LENGTH:
+                values = in.readMessage();
+                break;
+            case 4 << 3 | WIRE_LENGTH:
+                user = readInfoUser(in.readMessage());
+                break;
+            case 8 << 3 | WIRE_LENGTH:
+                roles = in.readMessage();
+                break;
+            case 9 << 3 | WIRE_LENGTH:
+                ids = in.readMessage();
+                break;
+            case 10 << 3 | WIRE_LENGTH:
+                types = in.readMessage();
+                break;
+            default:
+                in.skip(tag);
+                break;
+            }
+        }
+        readTags(keys, values);
+        int membersCount = 0;
+        long memberId = 0;
+        while (ids != null && ids.hasMore()) {
+            if (membersCount >= memberIds.length) {
+                int newLength = memberIds.length * 2;
+                memberIds = Arrays.copyOf(memberIds, newLength);
+                memberTypes = Arrays.copyOf(memberTypes, newLength);
+                memberRoles = Arrays.copyOf(memberRoles, newLength);
+            }
+            memberId += ids.readSInt64();
+            memberIds[membersCount] = memberId;
+            if (roles == null || types == null || !roles.hasMore() || !types.hasMore()) {
+                throw new RuntimeException("Wrong pbf data: not enough roles or types for relation " + id);
+            }
+            memberRoles[membersCount] = roleCode(roles.readVarint32());
+            memberTypes[membersCount] = memberType(types.readVarint32());
+            membersCount++;
+        }
+        handler.createRelation(this, id, Arrays.copyOf(memberIds, membersCount),
+                Arrays.copyOf(memberTypes, membersCount), user);
+    }
+
+    private static byte memberType(int type) {
+        switch (type) {
+        case 0:
+            return IOsmObject.TYPE_NODE;
+        case 1:
+            return IOsmObject.TYPE_WAY;
+        case 2:
+            return IOsmObject.TYPE_RELATION;
+        default:
+            throw new RuntimeException("Unknown member type: " + type);
+        }
+    }
+
+    private void readTags(ProtobufInput keys, ProtobufInput values) {
+        objectTagsCount = 0;
+        if (keys == null) {
+            return;
+        }
+        while (keys.hasMore()) {
+            if (values == null || !values.hasMore()) {
+                throw new RuntimeException("Wrong pbf data: tag without value");
+            }
+            addTag(keys.readVarint32(), values.readVarint32());
+        }
+    }
+
+    private void addTag(int keySid, int valueSid) {
+        if (objectTagsCount >= objectTagKeys.length) {
+            int newLength = objectTagKeys.length * 2;
+            objectTagKeys = Arrays.copyOf(objectTagKeys, newLength);
+            objectTagValues = Arrays.copyOf(objectTagValues, newLength);
+        }
+        checkString(keySid);
+        checkString(valueSid);
+        int key = keyCodes[keySid];
+        if (key == StringPack.NOT_FOUND) {
+            key = storage.getTagsPack().getTagCode(string(keySid));
+            keyCodes[keySid] = key;
+        }
+        objectTagKeys[objectTagsCount] = key;
+        objectTagValues[objectTagsCount] = storage.getValuesPack().intern(key, block,
+                stringPositions[valueSid], stringSizes[valueSid]);
+        objectTagsCount++;
+    }
+
+    private int userCode(int sid) {
+        checkString(sid);
+        int code = userCodes[sid];
+        if (code == StringPack.NOT_FOUND) {
+            code = storage.getUsersPack().getTagCode(string(sid));
+            userCodes[sid] = code;
+        }
+        return code;
+    }
+
+    private int roleCode(int sid) {
+        checkString(sid);
+        int code = roleCodes[sid];
+        if (code == StringPack.NOT_FOUND) {
+            code = storage.getRelationRolesPack().getTagCode(string(sid));
+            roleCodes[sid] = code;
+        }
+        return code;
+    }
+
+    private void checkString(int sid) {
+        if (sid < 0 || sid >= stringsCount) {
+            throw new RuntimeException("Wrong pbf data: string " + sid + " is not defined in block");
+        }
+    }
+
+    private String string(int sid) {
+        return new String(block, stringPositions[sid], stringSizes[sid], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Convert coordinate from block units into 100 nanodegrees.
+     */
+    private int coordinate(long offset, long value) {
+        long nano = offset + granularity * value;
+        long result = nano % 100 == 0 ? nano / 100 : Math.round(nano / 100.0);
+        if (result > Integer.MAX_VALUE || result < Integer.MIN_VALUE) {
+            throw new RuntimeException("Wrong pbf data: coordinate outside of range");
+        }
+        return (int) result;
+    }
+}
@@ -0,0 +1,219 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * This class reads pbf file and stores all data into MemoryStorage.
+ *
+ * Blobs are unpacked and decoded in parallel into separate part storages, then parts are merged in file
+ * order. Because of that, file should be sorted by type then ID, like all extracts. Ways are checked for
+ * known nodes on merge, i.e. after all nodes merged.
+ */
+public class PBFReader extends BaseReader {
+    // decoded blobs waiting for merge, for each thread of pool
+    private static final int BLOBS_PER_THREAD = 4;
+
+    public static void main(String[] aa) throws Exception {
+        MemoryStorage storage = new PBFReader().read(new File("tmp/belarus-updated.osm.pbf"));
+        storage.showStat();
+    }
+
+    public PBFReader() {
+        super(null);
+    }
+
+    public PBFReader(Envelope cropBox) {
+        super(cropBox);
+    }
+
+    public PBFReader(MemoryStorage storage, double minLat, double maxLat, double minLon, double maxLon) {
+        super(storage, new Envelope(minLon, maxLon, minLat, maxLat));
+    }
+
+    /**
+     * Reader for one blob while parallel read.
+     */
+    private PBFReader(PBFReader main) {
+        super(new MemoryStorage(main.storage), null);
+        minx = main.minx;
+        maxx = main.maxx;
+        miny = main.miny;
+        maxy = main.maxy;
+    }
+
+    /**
+     * Read file by threads of common pool.
+     */
+    public MemoryStorage read(File file) throws Exception {
+        return read(file, ForkJoinPool.commonPool());
+    }
+
+    public MemoryStorage read(File file, ForkJoinPool pool) throws Exception {
+        fileTimestamp(file.lastModified());
+        try (InputStream in = new FileInputStream(file)) {
+            return read(in, pool);
+        }
+    }
+
+    /**
+     * Read pbf from stream. Blobs are read by current thread, but decoded by threads of pool.
+     */
+    public MemoryStorage read(InputStream in, ForkJoinPool pool) throws Exception {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1024 * 1024));
+        int maxQueue = pool.getParallelism() * BLOBS_PER_THREAD;
+        Deque<ForkJoinTask<MemoryStorage>> queue = new ArrayDeque<>();
+        try {
+            PBFDriver.Blob blob;
+            while ((blob = PBFDriver.readBlob(data)) != null) {
+                switch (blob.type) {
+                case PBFDriver.BLOB_HEADER:
+                    new PBFDriver(this).readHeader(PBFDriver.unpack(blob));
+                    break;
+                case PBFDriver.BLOB_DATA:
+                    PBFDriver.Blob b = blob;
+                    queue.add(pool.submit(() -> {
+                        PBFReader reader = new PBFReader(this);
+                        new PBFDriver(reader).readBlock(PBFDriver.unpack(b));
+                        return reader.storage;
+                    }));
+                    break;
+                default:
+                    // unknown blobs should be skipped
+                    break;
+                }
+                while (queue.size() >= maxQueue || (!queue.isEmpty() && queue.peek().isDone())) {
+                    merge(queue.poll().get());
+                }
+            }
+            while (!queue.isEmpty()) {
+                merge(queue.poll().get());
+            }
+        } finally {
+            for (ForkJoinTask<MemoryStorage> task : queue) {
+                task.cancel(false);
+            }
+        }
+        storage.finishLoading();
+        return storage;
+    }
+
+    /**
+     * Add objects of decoded blob into storage.
+     */
+    private void merge(MemoryStorage part) {
+        storage.appendNodes(part);
+        for (int i = 0; i < part.wayCount; i++) {
+            if (isWayInside(part.wayNodes, part.wayNodesOffsets[i], part.wayNodesCounts[i])) {
+                storage.appendWay(part, i);
+            }
+        }
+        storage.appendRelations(part);
+    }
+
+    /**
+     * @param timestamp
+     *            The Unit is milliseconds since Jan 01 1970.
+     */
+    protected void fileTimestamp(long timestamp) {
+    }
+
+    void applyTags(PBFDriver driver, OsmBase obj) {
+        for (int i = 0; i < driver.objectTagsCount; i++) {
+            obj.tagKeys[i] = driver.objectTagKeys[i];
+            obj.tagValues[i] = driver.objectTagValues[i];
+        }
+    }
+
+    void applyTags(PBFDriver driver, TagsStore tags) {
+        for (int i = 0; i < driver.objectTagsCount; i++) {
+            tags.addTag(driver.objectTagKeys[i], driver.objectTagValues[i]);
+        }
+        tags.endObject();
+    }
+
+    /**
+     * Add nodes inside specified crop box.
+     */
+    void createNode(PBFDriver driver, long id, int lat, int lon, int user) {
+        if (lat > 900000000 || lat < -900000000) {
+            throw new RuntimeException("Wrong value for latitude: " + lat);
+        }
+        if (lon > 1800000000 || lon < -1800000000) {
+            throw new RuntimeException("Wrong value for longitude: " + lon);
+        }
+
+        if (!isInsideCropBox(lat, lon)) {
+            return;
+        }
+
+        if (driver.objectTagsCount > 0) {
+            storage.appendNode(id, lat, lon, user);
+            applyTags(driver, storage.nodeTags);
+        } else {
+            storage.ensureNodesCapacity(storage.simpleNodeCount + 1, storage.nodeCount);
+            int p = storage.simpleNodeCount++;
+            storage.simpleNodeIds[p] = id;
+            storage.simpleNodeLats[p] = lat;
+            storage.simpleNodeLons[p] = lon;
+        }
+    }
+
+    /**
+     * Add way into part storage. Nodes are checked on merge.
+     */
+    void createWay(PBFDriver driver, long id, long[] nodes, int nodesCount, int user) {
+        storage.appendWay(id, user, nodes, nodesCount);
+        applyTags(driver, storage.wayTags);
+    }
+
+    /**
+     * Way is inside if storage contains at least one node of way.
+     */
+    protected boolean isWayInside(long[] nodes, int from, int count) {
+        for (int i = from; i < from + count; i++) {
+            if (storage.getNodePosition(nodes[i]) != MemoryStorage.NODE_POSITION_MISSING) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add all relations.
+     */
+    void createRelation(PBFDriver driver, long id, long[] memberIds, byte[] memberTypes, int user) {
+        OsmRelation result = new OsmRelation(id, driver.objectTagsCount, memberIds, memberTypes, user);
+        System.arraycopy(driver.memberRoles, 0, result.memberRoles, 0, memberIds.length);
+        applyTags(driver, result);
+        storage.relations.add(result);
+    }
+}
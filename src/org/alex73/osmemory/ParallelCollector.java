@@ -0,0 +1,63 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Consumer for collect results of parallel processing, like
+ * {@link MemoryStorage#parallelByTag(String, Consumer)}. Each thread adds objects into own list without
+ * locks, and lists are merged by {@link #getResult()} after processing finished. Order of result is not
+ * defined.
+ */
+public class ParallelCollector<T> implements Consumer<T> {
+    private final List<List<T>> parts = new ArrayList<>();
+    private final ThreadLocal<List<T>> threadPart = ThreadLocal.withInitial(() -> {
+        List<T> part = new ArrayList<>();
+        synchronized (parts) {
+            parts.add(part);
+        }
+        return part;
+    });
+
+    @Override
+    public void accept(T t) {
+        threadPart.get().add(t);
+    }
+
+    /**
+     * Get all collected objects. Should be called after processing finished.
+     */
+    public List<T> getResult() {
+        synchronized (parts) {
+            int size = 0;
+            for (List<T> part : parts) {
+                size += part.size();
+            }
+            List<T> result = new ArrayList<>(size);
+            for (List<T> part : parts) {
+                result.addAll(part);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+
+/**
+ * Processing of nodes, ways and relations ranges by chunks in pool. Chunks have about the same cost, so
+ * relations chunks are much shorter than nodes chunks.
+ */
+class ParallelScan {
+    // relative cost of object processing
+    static final int NODE_WEIGHT = 1;
+    static final int WAY_WEIGHT = 4;
+    static final int RELATION_WEIGHT = 32;
+    // chunks count for each thread of pool, for balance when some chunks are slower
+    static final int CHUNKS_PER_THREAD = 8;
+
+    /**
+     * Process indexes from 0 to nodesCount by nodeProcessor, etc.
+     */
+    static void run(ForkJoinPool pool, int nodesCount, IntConsumer nodeProcessor, int waysCount,
+            IntConsumer wayProcessor, int relationsCount, IntConsumer relationProcessor) {
+        long totalWeight = (long) nodesCount * NODE_WEIGHT + (long) waysCount * WAY_WEIGHT
+                + (long) relationsCount * RELATION_WEIGHT;
+        long chunkWeight = totalWeight / ((long) pool.getParallelism() * CHUNKS_PER_THREAD) + 1;
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        addChunks(tasks, nodesCount, chunkWeight / NODE_WEIGHT, nodeProcessor);
+        addChunks(tasks, waysCount, chunkWeight / WAY_WEIGHT, wayProcessor);
+        addChunks(tasks, relationsCount, chunkWeight / RELATION_WEIGHT, relationProcessor);
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+    }
+
+    private static void addChunks(List<ForkJoinTask<?>> tasks, int count, long chunkSize,
+            IntConsumer processor) {
+        int size = (int) Math.max(1, Math.min(chunkSize, Integer.MAX_VALUE));
+        for (int from = 0; from < count; from += size) {
+            int f = from;
+            int t = (int) Math.min(count, (long) from + size);
+            tasks.add(ForkJoinTask.adapt(() -> {
+                for (int i = f; i < t; i++) {
+                    processor.accept(i);
+                }
+            }));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reader of protobuf wire format from part of byte array, for pbf read without generated classes. Messages
+ * are parsed field by field: readTag() returns field number and wire type, then value should be read by
+ * method for this type, or skipped. Embedded messages and packed arrays are returned as new input over the
+ * same array.
+ */
+class ProtobufInput {
+    static final int WIRE_VARINT = 0;
+    static final int WIRE_FIXED64 = 1;
+    static final int WIRE_LENGTH = 2;
+    static final int WIRE_FIXED32 = 5;
+
+    private final byte[] buffer;
+    private int pos;
+    private final int limit;
+
+    ProtobufInput(byte[] buffer, int from, int to) {
+        this.buffer = buffer;
+        this.pos = from;
+        this.limit = to;
+    }
+
+    static int tag(int field, int wireType) {
+        return (field << 3) | wireType;
+    }
+
+    boolean hasMore() {
+        return pos < limit;
+    }
+
+    int readTag() {
+        return readVarint32();
+    }
+
+    long readVarint() {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= limit) {
+                throw new RuntimeException("Wrong protobuf data: varint after the end of message");
+            }
+            byte b = buffer[pos++];
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new RuntimeException("Wrong protobuf data: too long varint");
+    }
+
+    int readVarint32() {
+        return (int) readVarint();
+    }
+
+    long readSInt64() {
+        long v = readVarint();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    int readSInt32() {
+        int v = readVarint32();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Read length-delimited field as new input, i.e. embedded message, packed array, bytes or string.
+     */
+    ProtobufInput readMessage() {
+        int length = readLength();
+        ProtobufInput result = new ProtobufInput(buffer, pos, pos + length);
+        pos += length;
+        return result;
+    }
+
+    String readString() {
+        int length = readLength();
+        String result = new String(buffer, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return result;
+    }
+
+    /**
+     * Skip value of field.
+     */
+    void skip(int tag) {
+        switch (tag & 7) {
+        case WIRE_VARINT:
+            readVarint();
+            break;
+        case WIRE_FIXED64:
+            skipBytes(8);
+            break;
+        case WIRE_LENGTH:
+            skipBytes(readLength());
+            break;
+        case WIRE_FIXED32:
+            skipBytes(4);
+            break;
+        default:
+            throw new RuntimeException("Wrong protobuf data: unknown wire type " + (tag & 7));
+        }
+    }
+
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    int getPosition() {
+        return pos;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    private int readLength() {
+        int length = readVarint32();
+        if (length < 0 || length > limit - pos) {
+            throw new RuntimeException("Wrong protobuf data: length " + length + " outside of message");
+        }
+        return length;
+    }
+
+    private void skipBytes(int count) {
+        if (count > limit - pos) {
+            throw new RuntimeException("Wrong protobuf data: field outside of message");
+        }
+        pos += count;
+    }
+}
@@ -0,0 +1,170 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Index of parents: ways for each node, and relations for each member. It's stored like compressed sparse
+ * row: parents of child c are in parents from offsets[c] to offsets[c+1], sorted.
+ *
+ * Child index for nodes is simple node position, or simpleNodeCount + index of node with tags. Child index
+ * for ways and relations is index in storage. Parents are indexes of ways or relations.
+ */
+class ReverseIndex {
+    final int simpleNodeCount;
+    final Refs nodeWays;
+    final Refs nodeRelations, wayRelations, relationRelations;
+
+    ReverseIndex(MemoryStorage storage) {
+        simpleNodeCount = storage.simpleNodeCount;
+        int nodesCount = storage.simpleNodeCount + storage.nodeCount;
+
+        int[] positions = storage.wayNodePositions;
+        int[] wayNodeChildren = new int[storage.wayNodesSize];
+        IntStream.range(0, storage.wayCount).parallel().forEach(w -> {
+            int from = storage.wayNodesOffsets[w];
+            int to = from + storage.wayNodesCounts[w];
+            for (int j = from; j < to; j++) {
+                int p = positions != null ? positions[j] : storage.getNodePosition(storage.wayNodes[j]);
+                wayNodeChildren[j] = nodeChild(p);
+            }
+        });
+        nodeWays = new Refs(nodesCount, storage.wayCount, w -> storage.wayNodesOffsets[w],
+                w -> storage.wayNodesOffsets[w] + storage.wayNodesCounts[w], j -> wayNodeChildren[j]);
+
+        int relationCount = storage.relations.size();
+        long[] relationIds = new long[relationCount];
+        int[] memberOffsets = new int[relationCount + 1];
+        for (int r = 0; r < relationCount; r++) {
+            relationIds[r] = storage.relations.get(r).getId();
+            memberOffsets[r + 1] = memberOffsets[r] + storage.relations.get(r).getMembersCount();
+        }
+        int[] memberChildren = new int[memberOffsets[relationCount]];
+        byte[] memberTypes = new byte[memberOffsets[relationCount]];
+        for (int r = 0; r < relationCount; r++) {
+            IOsmRelation rel = storage.relations.get(r);
+            for (int i = 0; i < rel.getMembersCount(); i++) {
+                int m = memberOffsets[r] + i;
+                long id = rel.getMemberID(i);
+                memberTypes[m] = (byte) rel.getMemberType(i);
+                switch (rel.getMemberType(i)) {
+                case IOsmObject.TYPE_NODE:
+                    memberChildren[m] = nodeChild(storage.getNodePosition(id));
+                    break;
+                case IOsmObject.TYPE_WAY:
+                    memberChildren[m] = Arrays.binarySearch(storage.wayIds, 0, storage.wayCount, id);
+                    break;
+                case IOsmObject.TYPE_RELATION:
+                    memberChildren[m] = Arrays.binarySearch(relationIds, id);
+                    break;
+                }
+                if (memberChildren[m] < 0) {
+                    memberChildren[m] = -1;
+                }
+            }
+        }
+        nodeRelations = new Refs(nodesCount, relationCount, r -> memberOffsets[r], r -> memberOffsets[r + 1],
+                m -> memberTypes[m] == IOsmObject.TYPE_NODE ? memberChildren[m] : -1);
+        wayRelations = new Refs(storage.wayCount, relationCount, r -> memberOffsets[r],
+                r -> memberOffsets[r + 1],
+                m -> memberTypes[m] == IOsmObject.TYPE_WAY ? memberChildren[m] : -1);
+        relationRelations = new Refs(relationCount, relationCount, r -> memberOffsets[r],
+                r -> memberOffsets[r + 1],
+                m -> memberTypes[m] == IOsmObject.TYPE_RELATION ? memberChildren[m] : -1);
+    }
+
+    /**
+     * Child index by node position.
+     */
+    int nodeChild(int position) {
+        if (position == MemoryStorage.NODE_POSITION_MISSING) {
+            return -1;
+        }
+        return position >= 0 ? position : simpleNodeCount - 2 - position;
+    }
+
+    long getMemorySize() {
+        return nodeWays.getMemorySize() + nodeRelations.getMemorySize() + wayRelations.getMemorySize()
+                + relationRelations.getMemorySize();
+    }
+
+    /**
+     * Parents of children in CSR form.
+     */
+    static class Refs {
+        final int[] offsets;
+        final int[] parents;
+
+        /**
+         * @param from
+         *            first reference of parent
+         * @param to
+         *            last reference of parent, exclusive
+         * @param child
+         *            child index by reference, or -1 if reference should be skipped
+         */
+        Refs(int childrenCount, int parentsCount, IntUnaryOperator from, IntUnaryOperator to,
+                IntUnaryOperator child) {
+            offsets = new int[childrenCount + 1];
+            // the same child can be referenced by one parent many times, like the first and last nodes of
+            // closed way, but parent should be added only once
+            int[] lastParent = new int[childrenCount];
+            Arrays.fill(lastParent, -1);
+            for (int p = 0; p < parentsCount; p++) {
+                for (int j = from.applyAsInt(p); j < to.applyAsInt(p); j++) {
+                    int c = child.applyAsInt(j);
+                    if (c >= 0 && lastParent[c] != p) {
+                        lastParent[c] = p;
+                        offsets[c + 1]++;
+                    }
+                }
+            }
+            for (int c = 0; c < childrenCount; c++) {
+                offsets[c + 1] += offsets[c];
+            }
+            parents = new int[offsets[childrenCount]];
+            int[] next = lastParent;
+            System.arraycopy(offsets, 0, next, 0, childrenCount);
+            for (int p = 0; p < parentsCount; p++) {
+                for (int j = from.applyAsInt(p); j < to.applyAsInt(p); j++) {
+                    int c = child.applyAsInt(j);
+                    if (c >= 0 && (next[c] == offsets[c] || parents[next[c] - 1] != p)) {
+                        parents[next[c]++] = p;
+                    }
+                }
+            }
+        }
+
+        int from(int child) {
+            return child < 0 ? 0 : offsets[child];
+        }
+
+        int to(int child) {
+            return child < 0 ? 0 : offsets[child + 1];
+        }
+
+        long getMemorySize() {
+            return 4L * (offsets.length + parents.length);
+        }
+    }
+}
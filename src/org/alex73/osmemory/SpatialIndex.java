@@ -0,0 +1,329 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Spatial index of all objects in storage: packed R-trees, where objects sorted along Hilbert curve by center
+ * of bounding box. There are separate trees for nodes, ways and relations. References in the tree of nodes
+ * are node positions, in other trees - indexes of ways and relations.
+ *
+ * Bounding boxes of ways and relations are calculated by existing nodes only. Objects without any existing
+ * node are not included into index.
+ */
+class SpatialIndex {
+    final Tree nodes, ways, relations;
+
+    SpatialIndex(MemoryStorage storage) {
+        // nodes
+        int simpleCount = storage.simpleNodeCount;
+        int count = simpleCount + storage.nodeCount;
+        int[] lats = new int[count];
+        int[] lons = new int[count];
+        int[] refs = new int[count];
+        System.arraycopy(storage.simpleNodeLats, 0, lats, 0, simpleCount);
+        System.arraycopy(storage.simpleNodeLons, 0, lons, 0, simpleCount);
+        System.arraycopy(storage.nodeLats, 0, lats, simpleCount, storage.nodeCount);
+        System.arraycopy(storage.nodeLons, 0, lons, simpleCount, storage.nodeCount);
+        for (int i = 0; i < simpleCount; i++) {
+            refs[i] = i;
+        }
+        for (int i = 0; i < storage.nodeCount; i++) {
+            refs[simpleCount + i] = -2 - i;
+        }
+        nodes = new Tree(count, lats, lats, lons, lons, refs);
+
+        // ways
+        int wayCount = storage.wayCount;
+        int[] wayMinLat = new int[wayCount];
+        int[] wayMaxLat = new int[wayCount];
+        int[] wayMinLon = new int[wayCount];
+        int[] wayMaxLon = new int[wayCount];
+        int[] wayPositions = storage.wayNodePositions;
+        IntStream.range(0, wayCount).parallel().forEach(i -> {
+            int minLat = Integer.MAX_VALUE, maxLat = Integer.MIN_VALUE;
+            int minLon = Integer.MAX_VALUE, maxLon = Integer.MIN_VALUE;
+            int from = storage.wayNodesOffsets[i];
+            int to = from + storage.wayNodesCounts[i];
+            for (int j = from; j < to; j++) {
+                int p = wayPositions != null ? wayPositions[j] : storage.getNodePosition(storage.wayNodes[j]);
+                if (p == MemoryStorage.NODE_POSITION_MISSING) {
+                    continue;
+                }
+                int lat = storage.getNodeLatByPosition(p);
+                int lon = storage.getNodeLonByPosition(p);
+                minLat = Math.min(minLat, lat);
+                maxLat = Math.max(maxLat, lat);
+                minLon = Math.min(minLon, lon);
+                maxLon = Math.max(maxLon, lon);
+            }
+            wayMinLat[i] = minLat;
+            wayMaxLat[i] = maxLat;
+            wayMinLon[i] = minLon;
+            wayMaxLon[i] = maxLon;
+        });
+        ways = Tree.create(wayCount, wayMinLat, wayMaxLat, wayMinLon, wayMaxLon);
+
+        // relations
+        int relationCount = storage.relations.size();
+        int[] relMinLat = new int[relationCount];
+        int[] relMaxLat = new int[relationCount];
+        int[] relMinLon = new int[relationCount];
+        int[] relMaxLon = new int[relationCount];
+        IntStream.range(0, relationCount).parallel().forEach(i -> {
+            int[] box = new int[] { Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE,
+                    Integer.MIN_VALUE };
+            expandByRelation(storage, storage.relations.get(i), box, wayMinLat, wayMaxLat, wayMinLon,
+                    wayMaxLon, new HashSet<>());
+            relMinLat[i] = box[0];
+            relMaxLat[i] = box[1];
+            relMinLon[i] = box[2];
+            relMaxLon[i] = box[3];
+        });
+        relations = Tree.create(relationCount, relMinLat, relMaxLat, relMinLon, relMaxLon);
+    }
+
+    /**
+     * Expand box [minLat, maxLat, minLon, maxLon] by all members of relation, including members of child
+     * relations.
+     */
+    private static void expandByRelation(MemoryStorage storage, IOsmRelation relation, int[] box,
+            int[] wayMinLat, int[] wayMaxLat, int[] wayMinLon, int[] wayMaxLon,
+            Set<Long> processedRelations) {
+        processedRelations.add(relation.getId());
+        for (int i = 0; i < relation.getMembersCount(); i++) {
+            long id = relation.getMemberID(i);
+            switch (relation.getMemberType(i)) {
+            case IOsmObject.TYPE_NODE:
+                int p = storage.getNodePosition(id);
+                if (p != MemoryStorage.NODE_POSITION_MISSING) {
+                    int lat = storage.getNodeLatByPosition(p);
+                    int lon = storage.getNodeLonByPosition(p);
+                    expand(box, lat, lat, lon, lon);
+                }
+                break;
+            case IOsmObject.TYPE_WAY:
+                int w = Arrays.binarySearch(storage.wayIds, 0, storage.wayCount, id);
+                if (w >= 0) {
+                    expand(box, wayMinLat[w], wayMaxLat[w], wayMinLon[w], wayMaxLon[w]);
+                }
+                break;
+            case IOsmObject.TYPE_RELATION:
+                if (!processedRelations.contains(id)) {
+                    IOsmRelation r = storage.getRelationById(id);
+                    if (r != null) {
+                        expandByRelation(storage, r, box, wayMinLat, wayMaxLat, wayMinLon, wayMaxLon,
+                                processedRelations);
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    private static void expand(int[] box, int minLat, int maxLat, int minLon, int maxLon) {
+        box[0] = Math.min(box[0], minLat);
+        box[1] = Math.max(box[1], maxLat);
+        box[2] = Math.min(box[2], minLon);
+        box[3] = Math.max(box[3], maxLon);
+    }
+
+    long getMemorySize() {
+        return nodes.getMemorySize() + ways.getMemorySize() + relations.getMemorySize();
+    }
+
+    /**
+     * Position of point on Hilbert curve of order 16, i.e. 65536x65536 cells over the world.
+     */
+    static long hilbert(int lat, int lon) {
+        int n = 1 << 16;
+        long clon = Math.max(Math.min(lon, 1800000000), -1800000000);
+        long clat = Math.max(Math.min(lat, 900000000), -900000000);
+        int x = (int) ((clon + 1800000000) * (n - 1) / 3600000000L);
+        int y = (int) ((clat + 900000000) * (n - 1) / 1800000000L);
+        long d = 0;
+        for (int s = n / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            // rotate quadrant
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Packed R-tree. Level 0 contains boxes of objects, each next level contains boxes of NODE_SIZE children.
+     */
+    static class Tree {
+        static final int NODE_SIZE = 16;
+
+        final int[] refs;
+        final int[][] minLat, maxLat, minLon, maxLon;
+
+        /**
+         * Create tree for objects with defined boxes only. References are indexes of objects.
+         */
+        static Tree create(int count, int[] minLat, int[] maxLat, int[] minLon, int[] maxLon) {
+            int c = 0;
+            for (int i = 0; i < count; i++) {
+                if (minLat[i] <= maxLat[i]) {
+                    c++;
+                }
+            }
+            int[] refs = new int[c];
+            c = 0;
+            for (int i = 0; i < count; i++) {
+                if (minLat[i] <= maxLat[i]) {
+                    refs[c++] = i;
+                }
+            }
+            return new Tree(c, select(minLat, refs), select(maxLat, refs), select(minLon, refs),
+                    select(maxLon, refs), refs);
+        }
+
+        private static int[] select(int[] values, int[] indexes) {
+            int[] result = new int[indexes.length];
+            for (int i = 0; i < indexes.length; i++) {
+                result[i] = values[indexes[i]];
+            }
+            return result;
+        }
+
+        /**
+         * Create tree. For points, min and max arrays can be the same arrays, then they will be shared in
+         * tree also.
+         */
+        Tree(int count, int[] minLat, int[] maxLat, int[] minLon, int[] maxLon, int[] refs) {
+            // sort by Hilbert value of center, with index in lower bits
+            long[] keys = new long[count];
+            IntStream.range(0, count).parallel().forEach(i -> {
+                int lat = (int) (((long) minLat[i] + maxLat[i]) / 2);
+                int lon = (int) (((long) minLon[i] + maxLon[i]) / 2);
+                keys[i] = (hilbert(lat, lon) << 31) | i;
+            });
+            Arrays.parallelSort(keys);
+
+            int levels = 1;
+            for (int c = count; c > 1; c = (c + NODE_SIZE - 1) / NODE_SIZE) {
+                levels++;
+            }
+            this.minLat = new int[levels][];
+            this.maxLat = new int[levels][];
+            this.minLon = new int[levels][];
+            this.maxLon = new int[levels][];
+            this.refs = reorder(refs, keys);
+            this.minLat[0] = reorder(minLat, keys);
+            this.maxLat[0] = maxLat == minLat ? this.minLat[0] : reorder(maxLat, keys);
+            this.minLon[0] = reorder(minLon, keys);
+            this.maxLon[0] = maxLon == minLon ? this.minLon[0] : reorder(maxLon, keys);
+
+            for (int level = 1; level < levels; level++) {
+                int childCount = this.minLat[level - 1].length;
+                int parentCount = (childCount + NODE_SIZE - 1) / NODE_SIZE;
+                int[] cMinLat = this.minLat[level - 1], cMaxLat = this.maxLat[level - 1];
+                int[] cMinLon = this.minLon[level - 1], cMaxLon = this.maxLon[level - 1];
+                int[] pMinLat = new int[parentCount], pMaxLat = new int[parentCount];
+                int[] pMinLon = new int[parentCount], pMaxLon = new int[parentCount];
+                IntStream.range(0, parentCount).parallel().forEach(p -> {
+                    int from = p * NODE_SIZE;
+                    int to = Math.min(childCount, from + NODE_SIZE);
+                    int bMinLat = Integer.MAX_VALUE, bMaxLat = Integer.MIN_VALUE;
+                    int bMinLon = Integer.MAX_VALUE, bMaxLon = Integer.MIN_VALUE;
+                    for (int i = from; i < to; i++) {
+                        bMinLat = Math.min(bMinLat, cMinLat[i]);
+                        bMaxLat = Math.max(bMaxLat, cMaxLat[i]);
+                        bMinLon = Math.min(bMinLon, cMinLon[i]);
+                        bMaxLon = Math.max(bMaxLon, cMaxLon[i]);
+                    }
+                    pMinLat[p] = bMinLat;
+                    pMaxLat[p] = bMaxLat;
+                    pMinLon[p] = bMinLon;
+                    pMaxLon[p] = bMaxLon;
+                });
+                this.minLat[level] = pMinLat;
+                this.maxLat[level] = pMaxLat;
+                this.minLon[level] = pMinLon;
+                this.maxLon[level] = pMaxLon;
+            }
+        }
+
+        private static int[] reorder(int[] values, long[] keys) {
+            int[] result = new int[keys.length];
+            IntStream.range(0, keys.length).parallel().forEach(i -> {
+                result[i] = values[(int) (keys[i] & 0x7FFFFFFF)];
+            });
+            return result;
+        }
+
+        /**
+         * Find references of all objects which box intersects with specified box.
+         */
+        void query(int qMinLat, int qMaxLat, int qMinLon, int qMaxLon, IntConsumer consumer) {
+            int top = minLat.length - 1;
+            search(top, 0, minLat[top].length, qMinLat, qMaxLat, qMinLon, qMaxLon, consumer);
+        }
+
+        private void search(int level, int from, int to, int qMinLat, int qMaxLat, int qMinLon, int qMaxLon,
+                IntConsumer consumer) {
+            int[] aMinLat = minLat[level], aMaxLat = maxLat[level];
+            int[] aMinLon = minLon[level], aMaxLon = maxLon[level];
+            for (int i = from; i < to; i++) {
+                if (aMinLat[i] > qMaxLat || aMaxLat[i] < qMinLat) {
+                    continue;
+                }
+                if (aMinLon[i] > qMaxLon || aMaxLon[i] < qMinLon) {
+                    continue;
+                }
+                if (level == 0) {
+                    consumer.accept(refs[i]);
+                } else {
+                    int childFrom = i * NODE_SIZE;
+                    int childTo = Math.min(minLat[level - 1].length, childFrom + NODE_SIZE);
+                    search(level - 1, childFrom, childTo, qMinLat, qMaxLat, qMinLon, qMaxLon, consumer);
+                }
+            }
+        }
+
+        long getMemorySize() {
+            long size = 4L * refs.length;
+            for (int level = 0; level < minLat.length; level++) {
+                size += 4L * (minLat[level].length + minLon[level].length);
+                if (maxLat[level] != minLat[level]) {
+                    size += 4L * (maxLat[level].length + maxLon[level].length);
+                }
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,443 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Binary snapshot of storage. Snapshot contains the same arrays as storage, in the same order, so it can be
+ * loaded by bulk reads from mapped file without parsing.
+ *
+ * Format: magic and version, then string packs, simple nodes, nodes with tags, ways, relations. Each array
+ * is stored as count of elements and elements in little-endian order. Tags are stored as offsets, keys, value
+ * lengths and all value bytes. Codes of keys, users and roles are stored as shorts or ints, like in storage.
+ */
+class StorageSnapshot {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final long MAGIC = 0x59524f4d454d534fL; // "OSMEMORY"
+    static final int VERSION = 2;
+
+    // size of mapped window while read
+    private static final int WINDOW_SIZE = 256 * 1024 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    static void save(MemoryStorage storage, File file) throws IOException {
+        try (Output out = new Output(FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+
+            writePack(out, storage.getTagsPack());
+            writePack(out, storage.getRelationRolesPack());
+            writePack(out, storage.getUsersPack());
+
+            out.writeInt(storage.simpleNodeCount);
+            out.writeLongs(storage.simpleNodeIds, storage.simpleNodeCount);
+            out.writeInts(storage.simpleNodeLats, storage.simpleNodeCount);
+            out.writeInts(storage.simpleNodeLons, storage.simpleNodeCount);
+
+            out.writeInt(storage.nodeCount);
+            out.writeLongs(storage.nodeIds, storage.nodeCount);
+            out.writeInts(storage.nodeLats, storage.nodeCount);
+            out.writeInts(storage.nodeLons, storage.nodeCount);
+            writeCodes(out, storage.nodeUsers, storage.nodeCount);
+            writeTags(out, storage.nodeTags);
+
+            out.writeInt(storage.wayCount);
+            out.writeLongs(storage.wayIds, storage.wayCount);
+            writeCodes(out, storage.wayUsers, storage.wayCount);
+            writeTags(out, storage.wayTags);
+            out.writeInts(storage.wayNodesOffsets, storage.wayCount);
+            out.writeInts(storage.wayNodesCounts, storage.wayCount);
+            out.writeInt(storage.wayNodesSize);
+            out.writeInt(storage.wayNodesGarbage);
+            out.writeLongs(storage.wayNodes, storage.wayNodesSize);
+
+            int relationCount = storage.relations.size();
+            long[] ids = new long[relationCount];
+            CodeArray users = new CodeArray(relationCount);
+            int[] memberCounts = new int[relationCount];
+            int membersSize = 0;
+            TagsStore tags = new TagsStore();
+            for (int i = 0; i < relationCount; i++) {
+                OsmRelation r = (OsmRelation) storage.relations.get(i);
+                ids[i] = r.getId();
+                users.set(i, r.getUser());
+                memberCounts[i] = r.getMembersCount();
+                membersSize += memberCounts[i];
+                for (int j = 0; j < r.tagKeys.length; j++) {
+                    tags.addTag(r.tagKeys[j], r.tagValues[j]);
+                }
+                tags.endObject();
+            }
+            long[] memberIDs = new long[membersSize];
+            byte[] memberTypes = new byte[membersSize];
+            CodeArray memberRoles = new CodeArray(membersSize);
+            int p = 0;
+            for (int i = 0; i < relationCount; i++) {
+                OsmRelation r = (OsmRelation) storage.relations.get(i);
+                System.arraycopy(r.memberIDs, 0, memberIDs, p, memberCounts[i]);
+                System.arraycopy(r.memberTypes, 0, memberTypes, p, memberCounts[i]);
+                memberRoles.copyFrom(r.memberRoles, p, memberCounts[i]);
+                p += memberCounts[i];
+            }
+            out.writeInt(relationCount);
+            out.writeLongs(ids, relationCount);
+            writeCodes(out, users, relationCount);
+            writeTags(out, tags);
+            out.writeInts(memberCounts, relationCount);
+            out.writeInt(membersSize);
+            out.writeLongs(memberIDs, membersSize);
+            out.writeBytes(memberTypes, membersSize);
+            writeCodes(out, memberRoles, membersSize);
+        }
+    }
+
+    static MemoryStorage load(File file) throws Exception {
+        MemoryStorage storage = new MemoryStorage();
+        try (Input in = new Input(FileChannel.open(file.toPath(), StandardOpenOption.READ))) {
+            if (in.readLong() != MAGIC) {
+                throw new IOException("This is not a storage snapshot");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version: " + version);
+            }
+
+            readPack(in, storage.getTagsPack());
+            readPack(in, storage.getRelationRolesPack());
+            readPack(in, storage.getUsersPack());
+
+            storage.simpleNodeCount = in.readInt();
+            storage.simpleNodeIds = in.readLongs(storage.simpleNodeCount);
+            storage.simpleNodeLats = in.readInts(storage.simpleNodeCount);
+            storage.simpleNodeLons = in.readInts(storage.simpleNodeCount);
+
+            storage.nodeCount = in.readInt();
+            storage.nodeIds = in.readLongs(storage.nodeCount);
+            storage.nodeLats = in.readInts(storage.nodeCount);
+            storage.nodeLons = in.readInts(storage.nodeCount);
+            storage.nodeUsers = readCodes(in, storage.nodeCount);
+            readTags(in, storage.nodeTags, storage.getValuesPack());
+
+            storage.wayCount = in.readInt();
+            storage.wayIds = in.readLongs(storage.wayCount);
+            storage.wayUsers = readCodes(in, storage.wayCount);
+            readTags(in, storage.wayTags, storage.getValuesPack());
+            storage.wayNodesOffsets = in.readInts(storage.wayCount);
+            storage.wayNodesCounts = in.readInts(storage.wayCount);
+            storage.wayNodesSize = in.readInt();
+            storage.wayNodesGarbage = in.readInt();
+            storage.wayNodes = in.readLongs(storage.wayNodesSize);
+
+            int relationCount = in.readInt();
+            long[] ids = in.readLongs(relationCount);
+            CodeArray users = readCodes(in, relationCount);
+            TagsStore tags = new TagsStore();
+            readTags(in, tags, storage.getValuesPack());
+            int[] memberCounts = in.readInts(relationCount);
+            int membersSize = in.readInt();
+            long[] memberIDs = in.readLongs(membersSize);
+            byte[] memberTypes = in.readBytes(membersSize);
+            CodeArray memberRoles = readCodes(in, membersSize);
+            int p = 0;
+            for (int i = 0; i < relationCount; i++) {
+                int to = p + memberCounts[i];
+                OsmRelation r = new OsmRelation(ids[i], tags.getTagsCount(i), Arrays.copyOfRange(memberIDs, p,
+                        to), Arrays.copyOfRange(memberTypes, p, to), users.get(i));
+                memberRoles.copyTo(p, r.memberRoles, memberCounts[i]);
+                tags.copyTo(i, r);
+                storage.relations.add(r);
+                p = to;
+            }
+        }
+        storage.finishLoading();
+        return storage;
+    }
+
+    private static void writePack(Output out, StringPack pack) throws IOException {
+        int count = pack.size();
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            String name = pack.getTagName(i);
+            if (name == null) {
+                // user is null for objects without user attribute
+                out.writeInt(-1);
+                continue;
+            }
+            byte[] bytes = name.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.writeBytes(bytes, bytes.length);
+        }
+    }
+
+    private static void readPack(Input in, StringPack pack) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int length = in.readInt();
+            // codes are assigned sequentially, so they will be the same
+            pack.getTagCode(length < 0 ? null : new String(in.readBytes(length), UTF8));
+        }
+    }
+
+    /**
+     * Codes are stored as width in bytes, then shorts or ints.
+     */
+    private static void writeCodes(Output out, CodeArray codes, int count) throws IOException {
+        if (codes.isWide()) {
+            out.writeInt(4);
+            out.writeInts(codes.wide, count);
+        } else {
+            out.writeInt(2);
+            out.writeShorts(codes.narrow, count);
+        }
+    }
+
+    private static CodeArray readCodes(Input in, int count) throws IOException {
+        int width = in.readInt();
+        switch (width) {
+        case 2:
+            return new CodeArray(in.readShorts(count));
+        case 4:
+            return new CodeArray(in.readInts(count));
+        default:
+            throw new IOException("Wrong codes width: " + width);
+        }
+    }
+
+    private static void writeTags(Output out, TagsStore tags) throws IOException {
+        out.writeInt(tags.count);
+        out.writeInt(tags.tagsCount);
+        out.writeInts(tags.offsets, tags.count + 1);
+        writeCodes(out, tags.keys, tags.tagsCount);
+        int[] lengths = new int[tags.tagsCount];
+        long size = 0;
+        for (int i = 0; i < tags.tagsCount; i++) {
+            lengths[i] = tags.values[i].length;
+            size += lengths[i];
+        }
+        out.writeInts(lengths, tags.tagsCount);
+        out.writeLong(size);
+        for (int i = 0; i < tags.tagsCount; i++) {
+            out.writeBytes(tags.values[i], lengths[i]);
+        }
+    }
+
+    private static void readTags(Input in, TagsStore tags, ValuePack values) throws IOException {
+        tags.count = in.readInt();
+        tags.tagsCount = in.readInt();
+        tags.offsets = in.readInts(tags.count + 1);
+        tags.keys = readCodes(in, tags.tagsCount);
+        int[] lengths = in.readInts(tags.tagsCount);
+        in.readLong();
+        tags.values = new byte[tags.tagsCount][];
+        for (int i = 0; i < tags.tagsCount; i++) {
+            tags.values[i] = values.intern(tags.keys.get(i), in.readBytes(lengths[i]));
+        }
+    }
+
+    /**
+     * Writes data by big blocks through buffer.
+     */
+    private static class Output implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(
+                ByteOrder.LITTLE_ENDIAN);
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void require(int count) throws IOException {
+            if (buffer.remaining() < count) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void writeInt(int v) throws IOException {
+            require(4);
+            buffer.putInt(v);
+        }
+
+        void writeLong(long v) throws IOException {
+            require(8);
+            buffer.putLong(v);
+        }
+
+        void writeLongs(long[] data, int count) throws IOException {
+            for (int p = 0; p < count;) {
+                require(8);
+                int n = Math.min(count - p, buffer.remaining() / 8);
+                buffer.asLongBuffer().put(data, p, n);
+                buffer.position(buffer.position() + n * 8);
+                p += n;
+            }
+        }
+
+        void writeInts(int[] data, int count) throws IOException {
+            for (int p = 0; p < count;) {
+                require(4);
+                int n = Math.min(count - p, buffer.remaining() / 4);
+                buffer.asIntBuffer().put(data, p, n);
+                buffer.position(buffer.position() + n * 4);
+                p += n;
+            }
+        }
+
+        void writeShorts(short[] data, int count) throws IOException {
+            for (int p = 0; p < count;) {
+                require(2);
+                int n = Math.min(count - p, buffer.remaining() / 2);
+                buffer.asShortBuffer().put(data, p, n);
+                buffer.position(buffer.position() + n * 2);
+                p += n;
+            }
+        }
+
+        void writeBytes(byte[] data, int count) throws IOException {
+            for (int p = 0; p < count;) {
+                require(1);
+                int n = Math.min(count - p, buffer.remaining());
+                buffer.put(data, p, n);
+                p += n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads data from file mapped by windows.
+     */
+    private static class Input implements AutoCloseable {
+        private final FileChannel channel;
+        private final long size;
+        private ByteBuffer buffer;
+        // file position of the window start
+        private long windowStart;
+
+        Input(FileChannel channel) throws IOException {
+            this.channel = channel;
+            size = channel.size();
+            map(0);
+        }
+
+        private void map(long start) throws IOException {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, size - start));
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            windowStart = start;
+        }
+
+        private void require(int count) throws IOException {
+            if (buffer.remaining() < count) {
+                long pos = windowStart + buffer.position();
+                if (size - pos < count) {
+                    throw new IOException("Snapshot is truncated");
+                }
+                map(pos);
+            }
+        }
+
+        int readInt() throws IOException {
+            require(4);
+            return buffer.getInt();
+        }
+
+        long readLong() throws IOException {
+            require(8);
+            return buffer.getLong();
+        }
+
+        long[] readLongs(int count) throws IOException {
+            long[] result = new long[count];
+            for (int p = 0; p < count;) {
+                require(8);
+                int n = Math.min(count - p, buffer.remaining() / 8);
+                buffer.asLongBuffer().get(result, p, n);
+                buffer.position(buffer.position() + n * 8);
+                p += n;
+            }
+            return result;
+        }
+
+        int[] readInts(int count) throws IOException {
+            int[] result = new int[count];
+            for (int p = 0; p < count;) {
+                require(4);
+                int n = Math.min(count - p, buffer.remaining() / 4);
+                buffer.asIntBuffer().get(result, p, n);
+                buffer.position(buffer.position() + n * 4);
+                p += n;
+            }
+            return result;
+        }
+
+        short[] readShorts(int count) throws IOException {
+            short[] result = new short[count];
+            for (int p = 0; p < count;) {
+                require(2);
+                int n = Math.min(count - p, buffer.remaining() / 2);
+                buffer.asShortBuffer().get(result, p, n);
+                buffer.position(buffer.position() + n * 2);
+                p += n;
+            }
+            return result;
+        }
+
+        byte[] readBytes(int count) throws IOException {
+            byte[] result = new byte[count];
+            for (int p = 0; p < count;) {
+                require(1);
+                int n = Math.min(count - p, buffer.remaining());
+                buffer.get(result, p, n);
+                p += n;
+            }
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
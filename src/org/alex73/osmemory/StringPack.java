@@ -19,41 +19,92 @@
 
 package org.alex73.osmemory;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Class for store some frequently used strings. Each string has own short id, that used in object instead
+ * Class for store some frequently used strings. Each string has own int id, that used in object instead
  * direct string usage.
  * 
- * That allow to minimize storage memory and use short type instead string.
+ * That allow to minimize storage memory and use int type instead string. Storage keeps codes in short[]
+ * while pack has less than Short.MAX_VALUE strings, see {@link CodeArray}.
+ * 
+ * Lookups don't lock, so pack can be used by many threads. New strings are added under lock, while loading
+ * and by updates after loading.
  */
 public class StringPack {
-    final protected Map<String, Short> tagCodes = new HashMap<>();
-    final protected Map<Short, String> tagNames = new HashMap<>();
-
-    public synchronized short getTagCode(String tagName) {
-        Short v = tagCodes.get(tagName);
-        short result;
-        if (v == null) {
-            result = (short) tagCodes.size();
-            if (result >= Short.MAX_VALUE) {
-                throw new RuntimeException("Too many tag keys: more than " + Short.MAX_VALUE);
-            }
-            tagCodes.put(tagName, result);
-            tagNames.put(result, tagName);
+    /**
+     * Code for unknown string, see {@link #findTagCode(String)}.
+     */
+    public static final int NOT_FOUND = -1;
+
+    // get() of concurrent map doesn't lock
+    protected final Map<String, Integer> tagCodes = new ConcurrentHashMap<>();
+    // strings by codes
+    protected volatile String[] tagNames = new String[256];
+    // code of null string, that can't be stored in concurrent map
+    protected volatile int nullCode = NOT_FOUND;
+    protected volatile int count;
+
+    /**
+     * Get code of string. New code is created if there is no such string yet.
+     */
+    public int getTagCode(String tagName) {
+        int result = findTagCode(tagName);
+        return result != NOT_FOUND ? result : addTagCode(tagName);
+    }
+
+    private synchronized int addTagCode(String tagName) {
+        int found = findTagCode(tagName);
+        if (found != NOT_FOUND) {
+            return found;
+        }
+        if (count == Integer.MAX_VALUE) {
+            throw new RuntimeException("Too many strings: more than " + Integer.MAX_VALUE);
+        }
+        int result = count;
+        String[] names = tagNames;
+        if (result >= names.length) {
+            names = Arrays.copyOf(names, names.length * 2);
+        }
+        names[result] = tagName;
+        tagNames = names;
+        count++;
+        if (tagName == null) {
+            nullCode = result;
         } else {
-            result = v;
+            tagCodes.put(tagName, result);
         }
         return result;
     }
 
-    public String getTagName(short tagKey) {
-        return tagNames.get(tagKey);
+    /**
+     * Get code of string without add new code, or NOT_FOUND if there is no such string. Should be used for
+     * search, because search of unknown tag should not add it into pack.
+     */
+    public int findTagCode(String tagName) {
+        if (tagName == null) {
+            return nullCode;
+        }
+        Integer v = tagCodes.get(tagName);
+        return v != null ? v : NOT_FOUND;
+    }
+
+    public String getTagName(int tagKey) {
+        String[] names = tagNames;
+        return tagKey >= 0 && tagKey < names.length ? names[tagKey] : null;
     }
 
     public Set<String> getTagNames() {
         return tagCodes.keySet();
     }
+
+    /**
+     * Strings count.
+     */
+    public int size() {
+        return count;
+    }
 }
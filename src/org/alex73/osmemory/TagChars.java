@@ -0,0 +1,89 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Chars view of UTF-8 tag value. ASCII values are read directly from bytes, other values are decoded once
+ * on creation.
+ */
+class TagChars implements CharSequence {
+    private final byte[] bytes;
+    private final int from, to;
+    // decoded chars for non-ASCII value, or null for ASCII
+    private final char[] chars;
+
+    TagChars(byte[] bytes) {
+        this(bytes, 0, bytes.length, isAscii(bytes) ? null : new String(bytes, StandardCharsets.UTF_8)
+                .toCharArray());
+    }
+
+    private TagChars(byte[] bytes, int from, int to, char[] chars) {
+        this.bytes = bytes;
+        this.from = from;
+        this.to = to;
+        this.chars = chars;
+    }
+
+    private static boolean isAscii(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int length() {
+        return chars == null ? to - from : chars.length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (chars != null) {
+            return chars[index];
+        }
+        if (index < 0 || index >= to - from) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        return (char) bytes[from + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (chars != null) {
+            return new String(chars, start, end - start);
+        }
+        if (start < 0 || end > to - from || start > end) {
+            throw new IndexOutOfBoundsException("Range: " + start + ".." + end);
+        }
+        return new TagChars(bytes, from + start, from + end, null);
+    }
+
+    @Override
+    public String toString() {
+        if (chars != null) {
+            return new String(chars);
+        }
+        return new String(bytes, from, to - from, StandardCharsets.US_ASCII);
+    }
+}
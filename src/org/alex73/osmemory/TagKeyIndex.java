@@ -0,0 +1,66 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.util.Arrays;
+
+/**
+ * Inverted index of tag keys for objects of one type: sorted positions of objects for each tag key code.
+ *
+ * Positions of objects with key k are in positions from offsets[k] to offsets[k+1].
+ */
+class TagKeyIndex {
+    final int[] offsets;
+    final int[] positions;
+
+    TagKeyIndex(TagsStore tags, int keysCount) {
+        int tagsCount = tags.offsets[tags.count];
+        offsets = new int[keysCount + 1];
+        for (int i = 0; i < tagsCount; i++) {
+            offsets[tags.keys.get(i) + 1]++;
+        }
+        for (int k = 0; k < keysCount; k++) {
+            offsets[k + 1] += offsets[k];
+        }
+        positions = new int[tagsCount];
+        int[] next = Arrays.copyOf(offsets, keysCount);
+        // objects are processed in order, so each list will be sorted
+        for (int i = 0; i < tags.count; i++) {
+            for (int j = tags.offsets[i]; j < tags.offsets[i + 1]; j++) {
+                positions[next[tags.keys.get(j)]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Index of the first position for key. Key can be created after index build, then list is empty.
+     */
+    int from(int key) {
+        return key + 1 < offsets.length ? offsets[key] : 0;
+    }
+
+    int to(int key) {
+        return key + 1 < offsets.length ? offsets[key + 1] : 0;
+    }
+
+    long getMemorySize() {
+        return 4L * (offsets.length + positions.length);
+    }
+}
@@ -0,0 +1,115 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Precompiled filter by tag, like highway=primary|secondary or name=Minsk*. Tag key code and UTF-8 bytes of
+ * values are prepared once, then objects are checked by bytes comparison without String creation.
+ *
+ * Matcher uses tag key codes of storage at the moment of creation, i.e. it should be created after loading.
+ * It's Predicate, so it can be used in byTag() with predicate or in streams.
+ */
+public class TagMatcher implements Predicate<IOsmObject> {
+    private final int tagKey;
+    // accepted values, or null if any value is accepted
+    private final byte[][] values;
+    private final boolean prefix;
+
+    private TagMatcher(MemoryStorage storage, String tagName, String[] values, boolean prefix) {
+        this.tagKey = storage.getTagsPack().findTagCode(tagName);
+        if (values != null) {
+            this.values = new byte[values.length][];
+            for (int i = 0; i < values.length; i++) {
+                this.values[i] = values[i].getBytes(StandardCharsets.UTF_8);
+                if (!prefix && tagKey != StringPack.NOT_FOUND) {
+                    // the same array as in objects, so Arrays.equals() will check only reference
+                    byte[] shared = storage.getValuesPack().find(tagKey, this.values[i]);
+                    if (shared != null) {
+                        this.values[i] = shared;
+                    }
+                }
+            }
+        } else {
+            this.values = null;
+        }
+        this.prefix = prefix;
+    }
+
+    /**
+     * Matcher of objects with tag, with any value.
+     */
+    public static TagMatcher hasTag(MemoryStorage storage, String tagName) {
+        return new TagMatcher(storage, tagName, null, false);
+    }
+
+    /**
+     * Matcher of objects with tag value equals to one of values.
+     */
+    public static TagMatcher valueIn(MemoryStorage storage, String tagName, String... values) {
+        return new TagMatcher(storage, tagName, values, false);
+    }
+
+    /**
+     * Matcher of objects with tag value starts with one of prefixes.
+     */
+    public static TagMatcher valueStartsWith(MemoryStorage storage, String tagName, String... prefixes) {
+        return new TagMatcher(storage, tagName, prefixes, true);
+    }
+
+    public int getTagKey() {
+        return tagKey;
+    }
+
+    @Override
+    public boolean test(IOsmObject obj) {
+        if (tagKey == StringPack.NOT_FOUND || !(obj instanceof OsmBase)) {
+            return false;
+        }
+        byte[] value = ((OsmBase) obj).getTagBytes(tagKey);
+        if (value == null) {
+            return false;
+        }
+        if (values == null) {
+            return true;
+        }
+        for (byte[] v : values) {
+            if (prefix ? startsWith(value, v) : Arrays.equals(value, v)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean startsWith(byte[] value, byte[] prefix) {
+        if (value.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (value[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
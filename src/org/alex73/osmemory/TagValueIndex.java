@@ -0,0 +1,144 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of values for one tag key: dictionary of values and sorted positions of objects for each value.
+ *
+ * Positions of objects of type t with value v are in positions[t] from offsets[t][v] to offsets[t][v+1]. Types
+ * are nodes, ways, relations.
+ */
+class TagValueIndex {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Map<Value, Integer> valueIds = new HashMap<>();
+    private long valuesSize;
+    final int[][] offsets = new int[3][];
+    final int[][] positions = new int[3][];
+
+    /**
+     * @param keyIndexes
+     *            key indexes for faster search of objects with key, or nulls if there are no indexes
+     */
+    TagValueIndex(int key, TagsStore[] tags, TagKeyIndex[] keyIndexes) {
+        Value probe = new Value();
+        int[][] objects = new int[3][];
+        int[][] objectValues = new int[3][];
+        int[] counts = new int[3];
+        for (int t = 0; t < 3; t++) {
+            TagsStore store = tags[t];
+            TagKeyIndex keyIndex = keyIndexes[t];
+            int from = keyIndex != null ? keyIndex.from(key) : 0;
+            int to = keyIndex != null ? keyIndex.to(key) : store.count;
+            objects[t] = new int[keyIndex != null ? to - from : 16];
+            objectValues[t] = new int[objects[t].length];
+            for (int i = from; i < to; i++) {
+                int pos = keyIndex != null ? keyIndex.positions[i] : i;
+                byte[] value = store.getTag(pos, key);
+                if (value == null) {
+                    continue;
+                }
+                probe.set(value);
+                Integer id = valueIds.get(probe);
+                if (id == null) {
+                    id = valueIds.size();
+                    valueIds.put(new Value(value), id);
+                    valuesSize += value.length;
+                }
+                if (counts[t] == objects[t].length) {
+                    objects[t] = Arrays.copyOf(objects[t], Math.max(16, counts[t] * 2));
+                    objectValues[t] = Arrays.copyOf(objectValues[t], objects[t].length);
+                }
+                objects[t][counts[t]] = pos;
+                objectValues[t][counts[t]] = id;
+                counts[t]++;
+            }
+        }
+        int valuesCount = valueIds.size();
+        for (int t = 0; t < 3; t++) {
+            int[] off = new int[valuesCount + 1];
+            for (int i = 0; i < counts[t]; i++) {
+                off[objectValues[t][i] + 1]++;
+            }
+            for (int v = 0; v < valuesCount; v++) {
+                off[v + 1] += off[v];
+            }
+            int[] pos = new int[counts[t]];
+            int[] next = Arrays.copyOf(off, valuesCount);
+            for (int i = 0; i < counts[t]; i++) {
+                pos[next[objectValues[t][i]]++] = objects[t][i];
+            }
+            offsets[t] = off;
+            positions[t] = pos;
+        }
+    }
+
+    /**
+     * Returns value id, or -1 if there are no objects with this value.
+     */
+    int getValueId(String value) {
+        Integer id = valueIds.get(new Value(value.getBytes(UTF8)));
+        return id != null ? id : -1;
+    }
+
+    long getMemorySize() {
+        long size = 0;
+        for (int t = 0; t < 3; t++) {
+            size += 4L * (offsets[t].length + positions[t].length);
+        }
+        // map entry, key object, Integer, value arrays
+        return size + valueIds.size() * (32L + 24 + 16 + 16) + valuesSize;
+    }
+
+    /**
+     * Value bytes as key for map.
+     */
+    private static class Value {
+        byte[] value;
+        int hash;
+
+        Value() {
+        }
+
+        Value(byte[] value) {
+            set(value);
+        }
+
+        void set(byte[] value) {
+            this.value = value;
+            hash = Arrays.hashCode(value);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Value && Arrays.equals(value, ((Value) obj).value);
+        }
+    }
+}
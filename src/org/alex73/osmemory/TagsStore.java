@@ -0,0 +1,227 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.util.Arrays;
+
+/**
+ * Tags of all objects of one type, stored in shared arrays instead of separate arrays in each object.
+ *
+ * Tags of object with index i placed in keys/values from offsets[i] to offsets[i+1].
+ */
+class TagsStore {
+    protected int[] offsets = new int[64 * 1024 + 1];
+    protected CodeArray keys = new CodeArray(64 * 1024);
+    protected byte[][] values = new byte[64 * 1024][];
+    // objects count
+    protected int count;
+    // tags count, including tags of object that is adding now
+    protected int tagsCount;
+
+    /**
+     * Add tag for the object that is adding now. Object should be closed by {@link #endObject()}.
+     */
+    void addTag(int key, byte[] value) {
+        ensureTagsCapacity(tagsCount + 1);
+        keys.set(tagsCount, key);
+        values[tagsCount] = value;
+        tagsCount++;
+    }
+
+    /**
+     * Finish tags of object that is adding now.
+     */
+    void endObject() {
+        ensureObjectsCapacity(count + 1);
+        count++;
+        offsets[count] = tagsCount;
+    }
+
+    /**
+     * Add tags of object from other store to the end.
+     */
+    void append(TagsStore other, int index) {
+        for (int i = other.offsets[index]; i < other.offsets[index + 1]; i++) {
+            addTag(other.keys.get(i), other.values[i]);
+        }
+        endObject();
+    }
+
+    /**
+     * Add tags of all objects from other store to the end.
+     */
+    void appendAll(TagsStore other) {
+        append(other, 0, other.count);
+    }
+
+    /**
+     * Add tags of objects from other store with indexes from 'from' to 'to' (exclusive) to the end.
+     */
+    void append(TagsStore other, int from, int to) {
+        int tagsFrom = other.offsets[from];
+        int size = other.offsets[to] - tagsFrom;
+        ensureObjectsCapacity(count + to - from);
+        ensureTagsCapacity(tagsCount + size);
+        keys.copyFrom(other.keys, tagsFrom, tagsCount, size);
+        System.arraycopy(other.values, tagsFrom, values, tagsCount, size);
+        for (int i = from + 1; i <= to; i++) {
+            offsets[count + i - from] = tagsCount + other.offsets[i] - tagsFrom;
+        }
+        count += to - from;
+        tagsCount += size;
+    }
+
+    /**
+     * Add tags of new object to the end.
+     */
+    void append(int[] k, byte[][] v) {
+        ensureTagsCapacity(tagsCount + k.length);
+        keys.copyFrom(k, tagsCount, k.length);
+        System.arraycopy(v, 0, values, tagsCount, k.length);
+        tagsCount += k.length;
+        endObject();
+    }
+
+    /**
+     * Take all arrays from other store, that was built as new version of this store.
+     */
+    void replaceWith(TagsStore other) {
+        offsets = other.offsets;
+        keys = other.keys;
+        values = other.values;
+        count = other.count;
+        tagsCount = other.tagsCount;
+    }
+
+    /**
+     * Insert tags for new object with specified index.
+     */
+    void insert(int index, int[] k, byte[][] v) {
+        ensureObjectsCapacity(count + 1);
+        System.arraycopy(offsets, index + 1, offsets, index + 2, count - index);
+        count++;
+        // new object is empty now
+        offsets[index + 1] = offsets[index];
+        set(index, k, v);
+    }
+
+    /**
+     * Replace tags of object with specified index.
+     */
+    void set(int index, int[] k, byte[][] v) {
+        resize(index, k.length);
+        keys.copyFrom(k, offsets[index], k.length);
+        System.arraycopy(v, 0, values, offsets[index], k.length);
+    }
+
+    /**
+     * Remove object with specified index.
+     */
+    void remove(int index) {
+        resize(index, 0);
+        System.arraycopy(offsets, index + 2, offsets, index + 1, count - index - 1);
+        count--;
+    }
+
+    /**
+     * Change tags count for object, with shift of tags of next objects.
+     */
+    private void resize(int index, int newSize) {
+        int from = offsets[index];
+        int to = offsets[index + 1];
+        int delta = newSize - (to - from);
+        if (delta == 0) {
+            return;
+        }
+        ensureTagsCapacity(tagsCount + delta);
+        keys.move(to, to + delta, tagsCount - to);
+        System.arraycopy(values, to, values, to + delta, tagsCount - to);
+        tagsCount += delta;
+        if (delta < 0) {
+            // release removed values
+            Arrays.fill(values, tagsCount, tagsCount - delta, null);
+        }
+        for (int i = index + 1; i <= count; i++) {
+            offsets[i] += delta;
+        }
+    }
+
+    int getTagsCount(int index) {
+        return offsets[index + 1] - offsets[index];
+    }
+
+    boolean hasTag(int index, int key) {
+        return indexOf(index, key) >= 0;
+    }
+
+    byte[] getTag(int index, int key) {
+        int i = indexOf(index, key);
+        return i >= 0 ? values[i] : null;
+    }
+
+    /**
+     * Get place of tag in keys/values, or -1 if object has no such tag.
+     */
+    private int indexOf(int index, int key) {
+        int from = offsets[index], to = offsets[index + 1];
+        short[] narrow = keys.narrow;
+        if (narrow != null) {
+            if (key > Short.MAX_VALUE) {
+                return -1;
+            }
+            for (int i = from; i < to; i++) {
+                if (narrow[i] == key) {
+                    return i;
+                }
+            }
+        } else {
+            int[] wide = keys.wide;
+            for (int i = from; i < to; i++) {
+                if (wide[i] == key) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copy tags into object. Object should be created with the same tags count.
+     */
+    void copyTo(int index, OsmBase obj) {
+        int from = offsets[index];
+        keys.copyTo(from, obj.tagKeys, obj.tagKeys.length);
+        System.arraycopy(values, from, obj.tagValues, 0, obj.tagValues.length);
+    }
+
+    private void ensureObjectsCapacity(int newCount) {
+        if (newCount + 1 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(newCount + 1, offsets.length + offsets.length / 2));
+        }
+    }
+
+    private void ensureTagsCapacity(int newTagsCount) {
+        if (newTagsCount > keys.length()) {
+            int newLength = Math.max(newTagsCount, keys.length() + keys.length() / 2);
+            keys.resize(newLength);
+            values = Arrays.copyOf(values, newLength);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionaries of tag values for each key, for share the same byte[] between all objects with the same value,
+ * like building=yes or highway=residential. Only keys with low count of different values are interned: when
+ * key gets more than MAX_VALUES_PER_KEY values, like name or addr:housenumber, dictionary of this key is
+ * dropped and next values are stored as separate arrays.
+ *
+ * Values of interned keys can be compared by reference, and Arrays.equals() checks reference first.
+ */
+class ValuePack {
+    static final int MAX_VALUES_PER_KEY = 4096;
+
+    // dictionaries by key code
+    private volatile KeyValues[] keys = new KeyValues[256];
+
+    /**
+     * Get shared value array for key.
+     */
+    byte[] intern(int key, byte[] value) {
+        return intern(key, value, 0, value.length, false);
+    }
+
+    /**
+     * Get shared value array for key, or copy of value bytes for keys with many values.
+     */
+    byte[] intern(int key, byte[] buffer, int from, int length) {
+        return intern(key, buffer, from, length, true);
+    }
+
+    /**
+     * Find shared value array without add new value, or null if there is no such value.
+     */
+    byte[] find(int key, byte[] value) {
+        KeyValues[] k = keys;
+        KeyValues kv = key >= 0 && key < k.length ? k[key] : null;
+        if (kv == null) {
+            return null;
+        }
+        Map<Value, byte[]> values = kv.values;
+        return values != null ? values.get(new Value(value, 0, value.length)) : null;
+    }
+
+    private byte[] intern(int key, byte[] buffer, int from, int length, boolean copy) {
+        Map<Value, byte[]> values = getKeyValues(key).values;
+        if (values == null) {
+            return copy ? Arrays.copyOfRange(buffer, from, from + length) : buffer;
+        }
+        byte[] result = values.get(new Value(buffer, from, length));
+        if (result == null) {
+            result = copy ? Arrays.copyOfRange(buffer, from, from + length) : buffer;
+            byte[] prev = values.putIfAbsent(new Value(result, 0, length), result);
+            if (prev != null) {
+                result = prev;
+            } else if (values.size() > MAX_VALUES_PER_KEY) {
+                getKeyValues(key).values = null;
+            }
+        }
+        return result;
+    }
+
+    private KeyValues getKeyValues(int key) {
+        KeyValues[] k = keys;
+        if (key < k.length && k[key] != null) {
+            return k[key];
+        }
+        synchronized (this) {
+            k = keys;
+            if (key >= k.length) {
+                k = Arrays.copyOf(k, Math.max(key + 1, k.length * 2));
+            }
+            if (k[key] == null) {
+                k[key] = new KeyValues();
+            }
+            keys = k;
+            return k[key];
+        }
+    }
+
+    private static class KeyValues {
+        // values dictionary, or null if key has too many values
+        volatile Map<Value, byte[]> values = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Part of bytes array as map key.
+     */
+    private static class Value {
+        final byte[] bytes;
+        final int from, length;
+        final int hash;
+
+        Value(byte[] bytes, int from, int length) {
+            this.bytes = bytes;
+            this.from = from;
+            this.length = length;
+            int h = 1;
+            for (int i = from; i < from + length; i++) {
+                h = 31 * h + bytes[i];
+            }
+            hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Value)) {
+                return false;
+            }
+            Value o = (Value) obj;
+            if (length != o.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[from + i] != o.bytes[o.from + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
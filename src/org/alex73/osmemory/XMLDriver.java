@@ -23,14 +23,19 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
 import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Unmarshaller;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -40,7 +45,6 @@ import osm.xmldatatypes.Member;
 import osm.xmldatatypes.Nd;
 import osm.xmldatatypes.Node;
 import osm.xmldatatypes.Osm;
-import osm.xmldatatypes.OsmBasicChange;
 import osm.xmldatatypes.OsmBasicType;
 import osm.xmldatatypes.OsmChange;
 import osm.xmldatatypes.Relation;
@@ -62,87 +66,210 @@ public class XMLDriver {
 
     final XMLReader handler;
     protected long id;
-    protected double lat, lon;
-    protected String user;
-    protected List<Tag> tags = new ArrayList<>();
-    protected List<Long> nds = new ArrayList<>();
-    protected List<Member> members = new ArrayList<>();
+    protected int lat, lon;
+    protected int user;
+    int tagsCount;
+    int[] tagKeys = new int[256];
+    byte[][] tagValues = new byte[256][];
+    int ndsCount;
+    long[] nds = new long[8192];
+    int membersCount;
+    long[] memberIds = new long[8192];
+    byte[] memberTypes = new byte[8192];
+    int[] memberRoles = new int[8192];
 
     public XMLDriver(XMLReader handler) {
         this.handler = handler;
     }
 
+    /**
+     * Read file by fast scanner, or by SAX parser if document is not supported by scanner.
+     */
     public void read(File file) throws Exception {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), XMLScanner.BUFFER_SIZE)) {
+            if (XMLScanner.isSupported(in)) {
+                new XMLScanner(this, in).read();
+            } else {
+                readSAX(in);
+            }
+        }
+    }
+
+    void readSAX(InputStream in) throws Exception {
+        MemoryStorage storage = handler.storage;
         SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
-        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
-            parser.parse(in, new DefaultHandler() {
-                @Override
-                public void startElement(String uri, String localName, String qName, Attributes attributes)
-                        throws SAXException {
-                    switch (qName) {
-                    case "node":
-                        id = Long.parseLong(attributes.getValue("id"));
-                        lat = Double.parseDouble(attributes.getValue("lat"));
-                        lon = Double.parseDouble(attributes.getValue("lon"));
-                        user = attributes.getValue("user");
-                        tags.clear();
-                        break;
-                    case "way":
-                        id = Long.parseLong(attributes.getValue("id"));
-                        user = attributes.getValue("user");
-                        tags.clear();
-                        nds.clear();
-                        break;
-                    case "nd":
-                        nds.add(Long.parseLong(attributes.getValue("ref")));
-                        break;
-                    case "relation":
-                        id = Long.parseLong(attributes.getValue("id"));
-                        user = attributes.getValue("user");
-                        tags.clear();
-                        members.clear();
+        parser.parse(in, new DefaultHandler() {
+            String nodeUser;
+
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes)
+                    throws SAXException {
+                switch (qName) {
+                case "node":
+                    id = Long.parseLong(attributes.getValue("id"));
+                    lat = coordinate(attributes.getValue("lat"));
+                    lon = coordinate(attributes.getValue("lon"));
+                    nodeUser = attributes.getValue("user");
+                    tagsCount = 0;
+                    break;
+                case "way":
+                    id = Long.parseLong(attributes.getValue("id"));
+                    user = storage.getUsersPack().getTagCode(attributes.getValue("user"));
+                    tagsCount = 0;
+                    ndsCount = 0;
+                    break;
+                case "nd":
+                    addNd(Long.parseLong(attributes.getValue("ref")));
+                    break;
+                case "relation":
+                    id = Long.parseLong(attributes.getValue("id"));
+                    user = storage.getUsersPack().getTagCode(attributes.getValue("user"));
+                    tagsCount = 0;
+                    membersCount = 0;
+                    break;
+                case "member":
+                    addMember(Long.parseLong(attributes.getValue("ref")),
+                            memberType(attributes.getValue("type")),
+                            storage.getRelationRolesPack().getTagCode(attributes.getValue("role")));
+                    break;
+                case "tag":
+                    int key = storage.getTagsPack().getTagCode(attributes.getValue("k"));
+                    byte[] value = attributes.getValue("v").getBytes(XMLReader.UTF8);
+                    addTag(key, storage.getValuesPack().intern(key, value));
+                    break;
+                }
+            }
+
+            @Override
+            public void endElement(String uri, String localName, String qName) throws SAXException {
+                switch (qName) {
+                case "node":
+                    // user is stored only for nodes with tags, so most nodes don't need user code
+                    user = tagsCount > 0 && handler.isInsideCropBox(lat, lon)
+                            ? storage.getUsersPack().getTagCode(nodeUser) : StringPack.NOT_FOUND;
+                    handler.createNode(XMLDriver.this, id, lat, lon, user);
+                    break;
+                case "way":
+                    handler.createWay(XMLDriver.this, id, nds, ndsCount, user);
+                    break;
+                case "relation":
+                    handler.createRelation(XMLDriver.this, id, user);
+                    break;
+                }
+            }
+        });
+    }
+
+    static int coordinate(String value) {
+        byte[] b = value.getBytes(StandardCharsets.ISO_8859_1);
+        return XMLScanner.coordinate(b, 0, b.length);
+    }
+
+    void addTag(int key, byte[] value) {
+        if (tagsCount >= tagKeys.length) {
+            tagKeys = Arrays.copyOf(tagKeys, tagKeys.length * 2);
+            tagValues = Arrays.copyOf(tagValues, tagValues.length * 2);
+        }
+        tagKeys[tagsCount] = key;
+        tagValues[tagsCount] = value;
+        tagsCount++;
+    }
+
+    void addNd(long ref) {
+        if (ndsCount >= nds.length) {
+            nds = Arrays.copyOf(nds, nds.length * 2);
+        }
+        nds[ndsCount++] = ref;
+    }
+
+    void addMember(long ref, byte type, int role) {
+        if (membersCount >= memberIds.length) {
+            memberIds = Arrays.copyOf(memberIds, memberIds.length * 2);
+            memberTypes = Arrays.copyOf(memberTypes, memberTypes.length * 2);
+            memberRoles = Arrays.copyOf(memberRoles, memberRoles.length * 2);
+        }
+        memberIds[membersCount] = ref;
+        memberTypes[membersCount] = type;
+        memberRoles[membersCount] = role;
+        membersCount++;
+    }
+
+    /**
+     * Apply osmChange document without callback. All changes are collected and applied together by one pass
+     * over storage arrays, that is much faster for big documents. Storage is not changed if document is
+     * wrong. Changes should not be begun in reader before call.
+     */
+    public void applyOsmChange(InputStream data) throws Exception {
+        handler.beginChanges();
+        boolean ok = false;
+        try {
+            applyOsmChange(data, null);
+            ok = true;
+        } finally {
+            if (ok) {
+                handler.commitChanges();
+            } else {
+                handler.rollbackChanges();
+            }
+        }
+    }
+
+    /**
+     * Apply osmChange document. Document is read by StAX, and each object is unmarshalled and applied
+     * separately in document order, so whole document is not stored in memory. Callback can be null.
+     */
+    public void applyOsmChange(InputStream data, IApplyChangeCallback callback) throws Exception {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XMLStreamReader rd = factory.createXMLStreamReader(data);
+        try {
+            Unmarshaller unmarshaller = CONTEXT.createUnmarshaller();
+            XMLReader.UPDATE_MODE mode = null;
+            while (rd.hasNext()) {
+                int event = rd.next();
+                while (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (rd.getLocalName()) {
+                    case "create":
+                        mode = XMLReader.UPDATE_MODE.CREATE;
                         break;
-                    case "member":
-                        Member m = new Member();
-                        m.setType(attributes.getValue("type"));
-                        m.setRef(Long.parseLong(attributes.getValue("ref")));
-                        m.setRole(attributes.getValue("role"));
-                        members.add(m);
+                    case "modify":
+                        mode = XMLReader.UPDATE_MODE.MODIFY;
                         break;
-                    case "tag":
-                        Tag t = new Tag();
-                        t.setK(attributes.getValue("k"));
-                        t.setV(attributes.getValue("v"));
-                        tags.add(t);
+                    case "delete":
+                        mode = XMLReader.UPDATE_MODE.DELETE;
                         break;
-                    }
-                }
-
-                @Override
-                public void endElement(String uri, String localName, String qName) throws SAXException {
-                    switch (qName) {
                     case "node":
-                        handler.createNode(XMLDriver.this, id, lat, lon, user);
-                        break;
+                        applyNode(mode, unmarshaller.unmarshal(rd, Node.class).getValue(), callback);
+                        // unmarshaller moves reader to the event after element
+                        event = rd.getEventType();
+                        continue;
                     case "way":
-                        handler.createWay(XMLDriver.this, id, nds, user);
-                        break;
+                        applyWay(mode, unmarshaller.unmarshal(rd, Way.class).getValue(), callback);
+                        event = rd.getEventType();
+                        continue;
                     case "relation":
-                        handler.createRelation(XMLDriver.this, id, members, user);
+                        applyRelation(mode, unmarshaller.unmarshal(rd, Relation.class).getValue(), callback);
+                        event = rd.getEventType();
+                        continue;
+                    }
+                    break;
+                }
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    switch (rd.getLocalName()) {
+                    case "create":
+                    case "modify":
+                    case "delete":
+                        mode = null;
                         break;
                     }
                 }
-            });
+            }
+        } finally {
+            rd.close();
         }
     }
 
-    public void applyOsmChange(InputStream data, IApplyChangeCallback callback) throws Exception {
-        OsmChange changes = (OsmChange) CONTEXT.createUnmarshaller().unmarshal(data);
-        applyBasicChanges(XMLReader.UPDATE_MODE.CREATE, changes.getCreate(), callback);
-        applyBasicChanges(XMLReader.UPDATE_MODE.MODIFY, changes.getModify(), callback);
-        applyBasicChanges(XMLReader.UPDATE_MODE.DELETE, changes.getDelete(), callback);
-    }
-
     static Map<String, String> tags(OsmBasicType obj) {
         Map<String, String> r = new TreeMap<>();
         for (Tag t : obj.getTag()) {
@@ -170,23 +297,24 @@ public class XMLDriver {
     static byte[] memberTypes(List<Member> members) {
         byte[] r = new byte[members.size()];
         for (int i = 0; i < r.length; i++) {
-            switch (members.get(i).getType()) {
-            case "node":
-                r[i] = IOsmObject.TYPE_NODE;
-                break;
-            case "way":
-                r[i] = IOsmObject.TYPE_WAY;
-                break;
-            case "relation":
-                r[i] = IOsmObject.TYPE_RELATION;
-                break;
-            default:
-                throw new RuntimeException("Unknown member type: " + members.get(i).getType());
-            }
+            r[i] = memberType(members.get(i).getType());
         }
         return r;
     }
 
+    static byte memberType(String type) {
+        switch (type) {
+        case "node":
+            return IOsmObject.TYPE_NODE;
+        case "way":
+            return IOsmObject.TYPE_WAY;
+        case "relation":
+            return IOsmObject.TYPE_RELATION;
+        default:
+            throw new RuntimeException("Unknown member type: " + type);
+        }
+    }
+
     static String[] memberRoles(List<Member> members) {
         String[] r = new String[members.size()];
         for (int i = 0; i < r.length; i++) {
@@ -195,25 +323,43 @@ public class XMLDriver {
         return r;
     }
 
-    void applyBasicChanges(XMLReader.UPDATE_MODE mode, List<OsmBasicChange> changes,
-            IApplyChangeCallback callback) {
-        for (OsmBasicChange c : changes) {
-            for (Node n : c.getNode()) {
-                callback.beforeUpdateNode(mode, n);
-                handler.updateNode(mode, n.getId(), n.getLat(), n.getLon(), tags(n), n.getUser());
-                callback.afterUpdateNode(mode, n);
-            }
-            for (Way w : c.getWay()) {
-                callback.beforeUpdateWay(mode, w);
-                handler.updateWay(mode, w.getId(), nodes(w.getNd()), tags(w), w.getUser());
-                callback.afterUpdateWay(mode, w);
-            }
-            for (Relation r : c.getRelation()) {
-                callback.beforeUpdateRelation(mode, r);
-                handler.updateRelation(mode, r.getId(), memberIds(r.getMember()), memberTypes(r.getMember()),
-                        memberRoles(r.getMember()), tags(r), r.getUser());
-                callback.afterUpdateRelation(mode, r);
-            }
+    void applyNode(XMLReader.UPDATE_MODE mode, Node n, IApplyChangeCallback callback) {
+        checkMode(mode, n);
+        if (callback != null) {
+            callback.beforeUpdateNode(mode, n);
+        }
+        handler.updateNode(mode, n.getId(), n.getLat(), n.getLon(), tags(n), n.getUser());
+        if (callback != null) {
+            callback.afterUpdateNode(mode, n);
+        }
+    }
+
+    void applyWay(XMLReader.UPDATE_MODE mode, Way w, IApplyChangeCallback callback) {
+        checkMode(mode, w);
+        if (callback != null) {
+            callback.beforeUpdateWay(mode, w);
+        }
+        handler.updateWay(mode, w.getId(), nodes(w.getNd()), tags(w), w.getUser());
+        if (callback != null) {
+            callback.afterUpdateWay(mode, w);
+        }
+    }
+
+    void applyRelation(XMLReader.UPDATE_MODE mode, Relation r, IApplyChangeCallback callback) {
+        checkMode(mode, r);
+        if (callback != null) {
+            callback.beforeUpdateRelation(mode, r);
+        }
+        handler.updateRelation(mode, r.getId(), memberIds(r.getMember()), memberTypes(r.getMember()),
+                memberRoles(r.getMember()), tags(r), r.getUser());
+        if (callback != null) {
+            callback.afterUpdateRelation(mode, r);
+        }
+    }
+
+    private static void checkMode(XMLReader.UPDATE_MODE mode, OsmBasicType obj) {
+        if (mode == null) {
+            throw new RuntimeException("Object " + obj.getId() + " is outside of create/modify/delete");
         }
     }
 
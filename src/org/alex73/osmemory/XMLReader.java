@@ -22,11 +22,8 @@ package org.alex73.osmemory;
 import java.io.File;
 import java.nio.charset.Charset;
 import java.util.Arrays;
-import java.util.List;
 import java.util.Map;
 
-import osm.xmldatatypes.Member;
-
 import com.vividsolutions.jts.geom.Envelope;
 
 /**
@@ -55,6 +52,40 @@ public class XMLReader extends BaseReader {
         super(storage, new Envelope(minLon, maxLon, minLat, maxLat));
     }
 
+    // updates collected after beginChanges(), or null if updates are applied immediately
+    private ChangeBatch batch;
+
+    /**
+     * Collect next updates instead of apply each of them into storage. Collected updates will be applied
+     * together by {@link #commitChanges()}, that is much faster for big change sets. Storage is not changed
+     * until commit, i.e. ways are not checked against new nodes. Changes can't be nested.
+     */
+    public void beginChanges() {
+        if (batch != null) {
+            throw new IllegalStateException("Changes were already begun");
+        }
+        batch = new ChangeBatch();
+    }
+
+    /**
+     * Apply updates collected after {@link #beginChanges()}.
+     */
+    public void commitChanges() {
+        ChangeBatch b = batch;
+        if (b == null) {
+            throw new IllegalStateException("Changes were not begun");
+        }
+        batch = null;
+        storage.applyChanges(b);
+    }
+
+    /**
+     * Drop updates collected after {@link #beginChanges()}.
+     */
+    public void rollbackChanges() {
+        batch = null;
+    }
+
     public MemoryStorage read(File file) throws Exception {
         new XMLDriver(this).read(file);
         storage.finishLoading();
@@ -62,17 +93,25 @@ public class XMLReader extends BaseReader {
     }
 
     void applyTags(XMLDriver driver, OsmBase obj) {
-        for (int i = 0; i < driver.tags.size(); i++) {
-            obj.tagKeys[i] = storage.getTagsPack().getTagCode(driver.tags.get(i).getK());
-            obj.tagValues[i] = bytes(driver.tags.get(i).getV());
+        for (int i = 0; i < driver.tagsCount; i++) {
+            obj.tagKeys[i] = driver.tagKeys[i];
+            obj.tagValues[i] = driver.tagValues[i];
+        }
+    }
+
+    void applyTags(XMLDriver driver, TagsStore tags) {
+        for (int i = 0; i < driver.tagsCount; i++) {
+            tags.addTag(driver.tagKeys[i], driver.tagValues[i]);
         }
+        tags.endObject();
     }
 
     void applyTags(Map<String, String> tags, OsmBase obj) {
         int i = 0;
         for (Map.Entry<String, String> en : tags.entrySet()) {
-            obj.tagKeys[i] = storage.getTagsPack().getTagCode(en.getKey());
-            obj.tagValues[i] = bytes(en.getValue());
+            int key = storage.getTagsPack().getTagCode(en.getKey());
+            obj.tagKeys[i] = key;
+            obj.tagValues[i] = storage.getValuesPack().intern(key, bytes(en.getValue()));
             i++;
         }
     }
@@ -80,25 +119,21 @@ public class XMLReader extends BaseReader {
     /**
      * Add nodes inside specified crop box.
      */
-    void createNode(XMLDriver driver, long id, double dlat, double dlon, String user) {
-        if (dlat > 90 || dlat < -90) {
-            throw new RuntimeException("Wrong value for latitude: " + dlat);
+    void createNode(XMLDriver driver, long id, int lat, int lon, int user) {
+        if (lat > 900000000 || lat < -900000000) {
+            throw new RuntimeException("Wrong value for latitude: " + lat);
         }
-        if (dlon > 180 || dlon < -180) {
-            throw new RuntimeException("Wrong value for longitude: " + dlon);
+        if (lon > 1800000000 || lon < -1800000000) {
+            throw new RuntimeException("Wrong value for longitude: " + lon);
         }
-        int lat = (int) Math.round(dlat / IOsmNode.DIVIDER);
-        int lon = (int) Math.round(dlon / IOsmNode.DIVIDER);
 
         if (!isInsideCropBox(lat, lon)) {
             return;
         }
 
-        if (driver.tags.size() > 0) {
-            short userCode = storage.getUsersPack().getTagCode(user);
-            OsmNode result = new OsmNode(id, driver.tags.size(), lat, lon, userCode);
-            applyTags(driver, result);
-            storage.nodes.add(result);
+        if (driver.tagsCount > 0) {
+            storage.appendNode(id, lat, lon, user);
+            applyTags(driver, storage.nodeTags);
         } else {
             if (storage.simpleNodeCount >= storage.simpleNodeIds.length) {
                 // extend
@@ -119,17 +154,29 @@ public class XMLReader extends BaseReader {
     public void updateNode(UPDATE_MODE mode, long id, double dlat, double dlon, Map<String, String> tags,
             String user) {
         if (mode == UPDATE_MODE.DELETE) {
-            storage.removeNode(id);
+            if (batch != null) {
+                batch.removeNode(id);
+            } else {
+                storage.removeNode(id);
+            }
         } else {
             int lat = (int) Math.round(dlat / IOsmNode.DIVIDER);
             int lon = (int) Math.round(dlon / IOsmNode.DIVIDER);
             if (tags.isEmpty()) {
-                storage.addSimpleNode(id, lat, lon);
+                if (batch != null) {
+                    batch.addSimpleNode(id, lat, lon);
+                } else {
+                    storage.addSimpleNode(id, lat, lon);
+                }
             } else {
-                short userCode = storage.getUsersPack().getTagCode(user);
+                int userCode = storage.getUsersPack().getTagCode(user);
                 OsmNode n = new OsmNode(id, tags.size(), lat, lon, userCode);
                 applyTags(tags, n);
-                storage.addNode(n);
+                if (batch != null) {
+                    batch.addNode(n);
+                } else {
+                    storage.addNode(n);
+                }
             }
         }
     }
@@ -137,64 +184,47 @@ public class XMLReader extends BaseReader {
     /**
      * Add ways that contains known nodes, i.e. inside specified crop box.
      */
-    void createWay(XMLDriver driver, long id, List<Long> nodes, String user) {
-        short userCode = storage.getUsersPack().getTagCode(user);
-        long[] ns = new long[nodes.size()];
-        for (int i = 0; i < ns.length; i++) {
-            ns[i] = nodes.get(i);
-        }
-        OsmWay result = new OsmWay(id, driver.tags.size(), ns, userCode);
+    void createWay(XMLDriver driver, long id, long[] nodes, int nodesCount, int user) {
         boolean inside = false;
-        for (int i = 0; i < ns.length; i++) {
-            if (storage.getNodeById(ns[i]) != null) {
+        for (int i = 0; i < nodesCount; i++) {
+            if (storage.getNodePosition(nodes[i]) != MemoryStorage.NODE_POSITION_MISSING) {
                 inside = true;
                 break;
             }
         }
         if (inside) {
-            applyTags(driver, result);
-            storage.ways.add(result);
+            storage.appendWay(id, user, nodes, nodesCount);
+            applyTags(driver, storage.wayTags);
         }
     }
 
     public void updateWay(UPDATE_MODE mode, long id, long[] nodes, Map<String, String> tags, String user) {
         if (mode == UPDATE_MODE.DELETE) {
-            storage.removeWay(id);
+            if (batch != null) {
+                batch.removeWay(id);
+            } else {
+                storage.removeWay(id);
+            }
         } else {
-            short userCode = storage.getUsersPack().getTagCode(user);
+            int userCode = storage.getUsersPack().getTagCode(user);
             OsmWay w = new OsmWay(id, tags.size(), nodes, userCode);
             applyTags(tags, w);
-            storage.addWay(w);
+            if (batch != null) {
+                batch.addWay(w);
+            } else {
+                storage.addWay(w);
+            }
         }
     }
 
     /**
      * Add all relations.
      */
-    void createRelation(XMLDriver driver, long id, List<Member> members, String user) {
-        short userCode = storage.getUsersPack().getTagCode(user);
-        long[] memberIds = new long[members.size()];
-        byte[] memberTypes = new byte[members.size()];
-        for (int i = 0; i < members.size(); i++) {
-            memberIds[i] = members.get(i).getRef();
-            switch (members.get(i).getType()) {
-            case "node":
-                memberTypes[i] = IOsmObject.TYPE_NODE;
-                break;
-            case "way":
-                memberTypes[i] = IOsmObject.TYPE_WAY;
-                break;
-            case "relation":
-                memberTypes[i] = IOsmObject.TYPE_RELATION;
-                break;
-            default:
-                throw new RuntimeException();
-            }
-        }
-        OsmRelation result = new OsmRelation(id, driver.tags.size(), memberIds, memberTypes, userCode);
-        for (int i = 0; i < result.memberRoles.length; i++) {
-            result.memberRoles[i] = storage.getRelationRolesPack().getTagCode(members.get(i).getRole());
-        }
+    void createRelation(XMLDriver driver, long id, int user) {
+        int count = driver.membersCount;
+        OsmRelation result = new OsmRelation(id, driver.tagsCount, Arrays.copyOf(driver.memberIds, count),
+                Arrays.copyOf(driver.memberTypes, count), user);
+        System.arraycopy(driver.memberRoles, 0, result.memberRoles, 0, count);
         applyTags(driver, result);
         storage.relations.add(result);
     }
@@ -202,15 +232,23 @@ public class XMLReader extends BaseReader {
     public void updateRelation(UPDATE_MODE mode, long id, long[] memberIDs, byte[] memberTypes,
             String[] memberRoles, Map<String, String> tags, String user) {
         if (mode == UPDATE_MODE.DELETE) {
-            storage.removeRelation(id);
+            if (batch != null) {
+                batch.removeRelation(id);
+            } else {
+                storage.removeRelation(id);
+            }
         } else {
-            short userCode = storage.getUsersPack().getTagCode(user);
+            int userCode = storage.getUsersPack().getTagCode(user);
             OsmRelation r = new OsmRelation(id, tags.size(), memberIDs, memberTypes, userCode);
             for (int i = 0; i < r.memberRoles.length; i++) {
                 r.memberRoles[i] = storage.getRelationRolesPack().getTagCode(memberRoles[i]);
             }
             applyTags(tags, r);
-            storage.addRelation(r);
+            if (batch != null) {
+                batch.addRelation(r);
+            } else {
+                storage.addRelation(r);
+            }
         }
     }
 
@@ -0,0 +1,617 @@
+/**************************************************************************
+ OSMemory library for OSM data processing.
+
+ Copyright (C) 2014 Aleś Bułojčyk <alex73mail@gmail.com>
+
+ This is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This software is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.alex73.osmemory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Fast reader of OSM XML from bytes. It's not full XML parser: it reads only elements and attributes of OSM
+ * data, and doesn't support DTD and encodings other than UTF-8. Such documents should be read by SAX parser,
+ * see {@link #isSupported(InputStream)}.
+ *
+ * Attribute values are decoded into internal buffer, then numbers are parsed from bytes, and strings are
+ * converted into codes through cache, so there are no String objects for each attribute.
+ */
+class XMLScanner {
+    static final int BUFFER_SIZE = 256 * 1024;
+    // head of document for check of encoding and DTD
+    private static final int HEAD_SIZE = 4096;
+    private static final Pattern RE_ENCODING = Pattern
+            .compile("^\\s*<\\?xml[^>]+encoding\\s*=\\s*[\"']([^\"']+)");
+
+    private static final int E_OTHER = 0, E_NODE = 1, E_WAY = 2, E_ND = 3, E_RELATION = 4, E_MEMBER = 5,
+            E_TAG = 6;
+    private static final int A_OTHER = 0, A_ID = 1, A_LAT = 2, A_LON = 3, A_USER = 4, A_REF = 5, A_TYPE = 6,
+            A_ROLE = 7, A_K = 8, A_V = 9, A_COUNT = 10;
+
+    private final XMLDriver driver;
+    private final MemoryStorage storage;
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int pos, limit;
+
+    private final byte[] name = new byte[64];
+    private int nameLength;
+    // decoded values of attributes of current element, by attribute
+    private byte[] values = new byte[4096];
+    private int valuesSize;
+    private final int[] valueFrom = new int[A_COUNT];
+    private final int[] valueLength = new int[A_COUNT];
+
+    private final CodeCache keys, users, roles;
+
+    XMLScanner(XMLDriver driver, InputStream in) {
+        this.driver = driver;
+        this.storage = driver.handler.storage;
+        this.in = in;
+        keys = new CodeCache(storage.getTagsPack());
+        users = new CodeCache(storage.getUsersPack());
+        roles = new CodeCache(storage.getRelationRolesPack());
+    }
+
+    /**
+     * Check that document can be read by scanner, i.e. it's UTF-8 without DTD. Stream should support mark.
+     */
+    static boolean isSupported(InputStream in) throws IOException {
+        in.mark(HEAD_SIZE);
+        byte[] head = new byte[HEAD_SIZE];
+        int size = 0;
+        while (size < head.length) {
+            int n = in.read(head, size, head.length - size);
+            if (n < 0) {
+                break;
+            }
+            size += n;
+        }
+        in.reset();
+        if (size >= 2 && (head[0] == 0 || head[1] == 0 || (head[0] & 0xFF) >= 0xFE)) {
+            // UTF-16 or UTF-32
+            return false;
+        }
+        String s = new String(head, 0, size, StandardCharsets.ISO_8859_1);
+        if (s.startsWith("\u00EF\u00BB\u00BF")) {
+            s = s.substring(3);
+        }
+        if (s.contains("<!DOCTYPE")) {
+            return false;
+        }
+        Matcher m = RE_ENCODING.matcher(s);
+        if (m.find()) {
+            String encoding = m.group(1).toUpperCase(Locale.ROOT);
+            return encoding.equals("UTF-8") || encoding.equals("UTF8") || encoding.equals("US-ASCII")
+                    || encoding.equals("ASCII");
+        }
+        return true;
+    }
+
+    void read() throws IOException {
+        while (skipTo('<')) {
+            int c = next();
+            if (c == '?') {
+                skipPast("?>");
+            } else if (c == '!') {
+                readDeclaration();
+            } else if (c == '/') {
+                int element = readElementName();
+                if (!skipTo('>')) {
+                    throw new RuntimeException("Unexpected end of XML");
+                }
+                endElement(element);
+            } else if (c >= 0) {
+                pos--;
+                readElement();
+            }
+        }
+    }
+
+    private void readDeclaration() throws IOException {
+        if (startsWith("--")) {
+            skipPast("-->");
+        } else if (startsWith("[CDATA[")) {
+            skipPast("]]>");
+        } else {
+            throw new RuntimeException("DTD is not supported by scanner");
+        }
+    }
+
+    private void readElement() throws IOException {
+        int element = readElementName();
+        Arrays.fill(valueLength, -1);
+        valuesSize = 0;
+        while (true) {
+            int c = skipSpaces();
+            if (c == '>') {
+                startElement(element, false);
+                return;
+            } else if (c == '/') {
+                if (next() != '>') {
+                    throw new RuntimeException("Wrong XML: '>' expected after '/'");
+                }
+                startElement(element, true);
+                endElement(element);
+                return;
+            } else if (c < 0) {
+                throw new RuntimeException("Unexpected end of XML");
+            }
+            pos--;
+            int attribute = readAttributeName();
+            if (skipSpaces() != '=') {
+                throw new RuntimeException("Wrong XML: '=' expected after attribute name");
+            }
+            int quote = skipSpaces();
+            if (quote != '"' && quote != '\'') {
+                throw new RuntimeException("Wrong XML: quote expected for attribute value");
+            }
+            if (attribute == A_OTHER) {
+                if (!skipTo(quote)) {
+                    throw new RuntimeException("Unexpected end of XML");
+                }
+            } else {
+                readValue(attribute, quote);
+            }
+        }
+    }
+
+    /**
+     * @param empty
+     *            element is closed by '/>', i.e. it doesn't have tags
+     */
+    private void startElement(int element, boolean empty) {
+        switch (element) {
+        case E_NODE:
+            driver.id = longValue(A_ID, "node");
+            driver.lat = coordinateValue(A_LAT);
+            driver.lon = coordinateValue(A_LON);
+            // user is stored only for nodes with tags, so most nodes don't need user code
+            driver.user = !empty && driver.handler.isInsideCropBox(driver.lat, driver.lon)
+                    ? users.code(values, valueFrom[A_USER], valueLength[A_USER]) : StringPack.NOT_FOUND;
+            driver.tagsCount = 0;
+            break;
+        case E_WAY:
+            driver.id = longValue(A_ID, "way");
+            driver.user = users.code(values, valueFrom[A_USER], valueLength[A_USER]);
+            driver.tagsCount = 0;
+            driver.ndsCount = 0;
+            break;
+        case E_RELATION:
+            driver.id = longValue(A_ID, "relation");
+            driver.user = users.code(values, valueFrom[A_USER], valueLength[A_USER]);
+            driver.tagsCount = 0;
+            driver.membersCount = 0;
+            break;
+        case E_ND:
+            driver.addNd(longValue(A_REF, "nd"));
+            break;
+        case E_MEMBER:
+            if (valueLength[A_TYPE] < 0) {
+                throw new RuntimeException("Attribute 'type' is not defined for member");
+            }
+            String type = new String(values, valueFrom[A_TYPE], valueLength[A_TYPE], StandardCharsets.UTF_8);
+            driver.addMember(longValue(A_REF, "member"), XMLDriver.memberType(type),
+                    roles.code(values, valueFrom[A_ROLE], valueLength[A_ROLE]));
+            break;
+        case E_TAG:
+            if (valueLength[A_K] < 0 || valueLength[A_V] < 0) {
+                throw new RuntimeException("Attributes 'k' and 'v' should be defined for tag");
+            }
+            int key = keys.code(values, valueFrom[A_K], valueLength[A_K]);
+            driver.addTag(key, storage.getValuesPack().intern(key, values, valueFrom[A_V], valueLength[A_V]));
+            break;
+        }
+    }
+
+    private void endElement(int element) {
+        switch (element) {
+        case E_NODE:
+            driver.handler.createNode(driver, driver.id, driver.lat, driver.lon, driver.user);
+            break;
+        case E_WAY:
+            driver.handler.createWay(driver, driver.id, driver.nds, driver.ndsCount, driver.user);
+            break;
+        case E_RELATION:
+            driver.handler.createRelation(driver, driver.id, driver.user);
+            break;
+        }
+    }
+
+    private long longValue(int attribute, String element) {
+        int length = valueLength[attribute];
+        if (length < 0) {
+            throw new RuntimeException("Attribute '" + (attribute == A_ID ? "id" : "ref")
+                    + "' is not defined for " + element);
+        }
+        int i = valueFrom[attribute], end = i + length;
+        boolean negative = i < end && values[i] == '-';
+        if (negative) {
+            i++;
+        }
+        if (i == end || end - i > 18) {
+            throw new NumberFormatException("Wrong number: " + string(attribute));
+        }
+        long result = 0;
+        for (; i < end; i++) {
+            int d = values[i] - '0';
+            if (d < 0 || d > 9) {
+                throw new NumberFormatException("Wrong number: " + string(attribute));
+            }
+            result = result * 10 + d;
+        }
+        return negative ? -result : result;
+    }
+
+    private int coordinateValue(int attribute) {
+        if (valueLength[attribute] < 0) {
+            throw new RuntimeException("Attribute '" + (attribute == A_LAT ? "lat" : "lon")
+                    + "' is not defined for node");
+        }
+        return coordinate(values, valueFrom[attribute], valueLength[attribute]);
+    }
+
+    /**
+     * Parse coordinate in degrees as fixed-point number into 100 nanodegrees units, without double rounding.
+     * Numbers with exponent, or too big, are parsed as double.
+     */
+    static int coordinate(byte[] b, int from, int length) {
+        int i = from, end = from + length;
+        boolean negative = i < end && (b[i] == '-' || b[i] == '+');
+        if (negative) {
+            negative = b[i] == '-';
+            i++;
+        }
+        long result = 0;
+        int digits = 0;
+        for (; i < end && b[i] >= '0' && b[i] <= '9'; i++) {
+            result = result * 10 + (b[i] - '0');
+            digits++;
+        }
+        int fraction = 0;
+        if (i < end && b[i] == '.') {
+            i++;
+            for (; i < end && b[i] >= '0' && b[i] <= '9'; i++) {
+                if (fraction < 7) {
+                    result = result * 10 + (b[i] - '0');
+                } else if (fraction == 7 && b[i] >= '5') {
+                    result++;
+                }
+                fraction++;
+                digits++;
+            }
+        }
+        if (i != end || digits == 0 || digits - Math.min(fraction, 7) > 4) {
+            double d = Double.parseDouble(new String(b, from, length, StandardCharsets.ISO_8859_1));
+            long r = Math.round(d / IOsmNode.DIVIDER);
+            return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, r));
+        }
+        for (; fraction < 7; fraction++) {
+            result *= 10;
+        }
+        return (int) (negative ? -result : result);
+    }
+
+    private String string(int attribute) {
+        return new String(values, valueFrom[attribute], valueLength[attribute], StandardCharsets.UTF_8);
+    }
+
+    private int readElementName() throws IOException {
+        readName();
+        switch (nameLength) {
+        case 2:
+            return isName("nd") ? E_ND : E_OTHER;
+        case 3:
+            return isName("way") ? E_WAY : isName("tag") ? E_TAG : E_OTHER;
+        case 4:
+            return isName("node") ? E_NODE : E_OTHER;
+        case 6:
+            return isName("member") ? E_MEMBER : E_OTHER;
+        case 8:
+            return isName("relation") ? E_RELATION : E_OTHER;
+        default:
+            return E_OTHER;
+        }
+    }
+
+    private int readAttributeName() throws IOException {
+        readName();
+        switch (nameLength) {
+        case 1:
+            return name[0] == 'k' ? A_K : name[0] == 'v' ? A_V : A_OTHER;
+        case 2:
+            return isName("id") ? A_ID : A_OTHER;
+        case 3:
+            return isName("lat") ? A_LAT : isName("lon") ? A_LON : isName("ref") ? A_REF : A_OTHER;
+        case 4:
+            return isName("user") ? A_USER : isName("type") ? A_TYPE : isName("role") ? A_ROLE : A_OTHER;
+        default:
+            return A_OTHER;
+        }
+    }
+
+    private void readName() throws IOException {
+        nameLength = 0;
+        while (true) {
+            if (pos >= limit && !fill()) {
+                return;
+            }
+            byte c = buffer[pos];
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '=' || c == '/' || c == '>') {
+                return;
+            }
+            if (nameLength < name.length) {
+                name[nameLength] = c;
+            }
+            nameLength++;
+            pos++;
+        }
+    }
+
+    private boolean isName(String expected) {
+        if (nameLength != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < nameLength; i++) {
+            if (name[i] != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read attribute value with entities decoding and normalization of whitespaces like XML parser does.
+     */
+    private void readValue(int attribute, int quote) throws IOException {
+        int from = valuesSize;
+        while (true) {
+            int c = next();
+            if (c == quote) {
+                break;
+            }
+            switch (c) {
+            case -1:
+                throw new RuntimeException("Unexpected end of XML");
+            case '&':
+                readEntity();
+                continue;
+            case '\r':
+                if (pos >= limit) {
+                    fill();
+                }
+                if (pos < limit && buffer[pos] == '\n') {
+                    pos++;
+                }
+                c = ' ';
+                break;
+            case '\n':
+            case '\t':
+                c = ' ';
+                break;
+            }
+            appendValue(c);
+        }
+        valueFrom[attribute] = from;
+        valueLength[attribute] = valuesSize - from;
+    }
+
+    private void readEntity() throws IOException {
+        int length = 0;
+        int c;
+        while ((c = next()) != ';') {
+            if (c < 0 || length >= name.length) {
+                throw new RuntimeException("Wrong XML entity");
+            }
+            name[length++] = (byte) c;
+        }
+        nameLength = length;
+        if (isName("lt")) {
+            appendValue('<');
+        } else if (isName("gt")) {
+            appendValue('>');
+        } else if (isName("amp")) {
+            appendValue('&');
+        } else if (isName("quot")) {
+            appendValue('"');
+        } else if (isName("apos")) {
+            appendValue('\'');
+        } else if (length > 1 && name[0] == '#') {
+            String num = new String(name, 1, length - 1, StandardCharsets.ISO_8859_1);
+            int cp = num.charAt(0) == 'x' ? Integer.parseInt(num.substring(1), 16) : Integer.parseInt(num);
+            byte[] utf = new String(Character.toChars(cp)).getBytes(StandardCharsets.UTF_8);
+            for (byte b : utf) {
+                appendValue(b);
+            }
+        } else {
+            throw new RuntimeException("Unknown XML entity: &" + new String(name, 0, length,
+                    StandardCharsets.UTF_8) + ";");
+        }
+    }
+
+    private void appendValue(int c) {
+        if (valuesSize >= values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[valuesSize++] = (byte) c;
+    }
+
+    private int skipSpaces() throws IOException {
+        while (true) {
+            int c = next();
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+        }
+    }
+
+    /**
+     * Skip bytes until specified byte, inclusive.
+     *
+     * @return false if end of input reached
+     */
+    private boolean skipTo(int c) throws IOException {
+        byte b = (byte) c;
+        while (true) {
+            for (int i = pos; i < limit; i++) {
+                if (buffer[i] == b) {
+                    pos = i + 1;
+                    return true;
+                }
+            }
+            pos = limit;
+            if (!fill()) {
+                return false;
+            }
+        }
+    }
+
+    private void skipPast(String end) throws IOException {
+        while (true) {
+            if (!skipTo(end.charAt(0))) {
+                throw new RuntimeException("Unexpected end of XML");
+            }
+            if (startsWith(end.substring(1))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Check if next bytes are the same as str, and skip them in this case.
+     */
+    private boolean startsWith(String str) throws IOException {
+        if (limit - pos < str.length()) {
+            fill();
+        }
+        if (limit - pos < str.length()) {
+            return false;
+        }
+        for (int i = 0; i < str.length(); i++) {
+            if (buffer[pos + i] != str.charAt(i)) {
+                return false;
+            }
+        }
+        pos += str.length();
+        return true;
+    }
+
+    private int next() throws IOException {
+        if (pos >= limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos++] & 0xFF;
+    }
+
+    /**
+     * Move unread bytes to the beginning of buffer and read more.
+     */
+    private boolean fill() throws IOException {
+        System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+        limit -= pos;
+        pos = 0;
+        int n = in.read(buffer, limit, buffer.length - limit);
+        if (n > 0) {
+            limit += n;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Cache of codes from StringPack for UTF-8 strings, for avoid String creation for each attribute.
+     */
+    private static class CodeCache {
+        private final StringPack pack;
+        private int nullCode = StringPack.NOT_FOUND;
+        private byte[][] strings = new byte[1024][];
+        private int[] codes = new int[1024];
+        private int count;
+
+        CodeCache(StringPack pack) {
+            this.pack = pack;
+        }
+
+        /**
+         * Get code of string, or code of null if length is -1. Code of null added into pack only on first
+         * usage, i.e. only for users and roles.
+         */
+        int code(byte[] buffer, int from, int length) {
+            if (length < 0) {
+                if (nullCode == StringPack.NOT_FOUND) {
+                    nullCode = pack.getTagCode(null);
+                }
+                return nullCode;
+            }
+            int hash = 1;
+            for (int i = from; i < from + length; i++) {
+                hash = 31 * hash + buffer[i];
+            }
+            int mask = strings.length - 1;
+            int slot = hash & mask;
+            while (strings[slot] != null) {
+                if (equals(strings[slot], buffer, from, length)) {
+                    return codes[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            int code = pack.getTagCode(new String(buffer, from, length, StandardCharsets.UTF_8));
+            strings[slot] = Arrays.copyOfRange(buffer, from, from + length);
+            codes[slot] = code;
+            if (++count > strings.length / 2) {
+                grow();
+            }
+            return code;
+        }
+
+        private static boolean equals(byte[] str, byte[] buffer, int from, int length) {
+            if (str.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (str[i] != buffer[from + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void grow() {
+            byte[][] oldStrings = strings;
+            int[] oldCodes = codes;
+            strings = new byte[oldStrings.length * 2][];
+            codes = new int[oldCodes.length * 2];
+            int mask = strings.length - 1;
+            for (int i = 0; i < oldStrings.length; i++) {
+                byte[] s = oldStrings[i];
+                if (s != null) {
+                    int slot = Arrays.hashCode(s) & mask;
+                    while (strings[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    strings[slot] = s;
+                    codes[slot] = oldCodes[i];
+                }
+            }
+        }
+    }
+}
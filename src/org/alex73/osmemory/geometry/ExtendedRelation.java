@@ -147,16 +147,16 @@ public class ExtendedRelation implements IExtendedObject {
     }
 
     LineString way2line(MemoryStorage storage, IOsmWay way) {
-        long[] nodeIds = way.getNodeIds();
-
-        Coordinate[] points = new Coordinate[nodeIds.length];
+        Coordinate[] points = new Coordinate[way.getNodesCount()];
         for (int i = 0; i < points.length; i++) {
-            IOsmNode node = storage.getNodeById(nodeIds[i]);
-            if (node == null) {
-                throw new RuntimeException("Node #" + nodeIds[i] + " not exist for way #" + way.getId());
+            long nid = way.getNodeId(i);
+            int p = ExtendedWay.nodePosition(storage, way, i);
+            if (p == MemoryStorage.NODE_POSITION_MISSING) {
+                throw new RuntimeException("Node #" + nid + " not exist for way #" + way.getId());
             }
-            borderNodes.add(nodeIds[i]);
-            points[i] = GeometryHelper.coord(node.getLongitude(), node.getLatitude());
+            borderNodes.add(nid);
+            points[i] = GeometryHelper.coord(storage.getNodeLonByPosition(p) * IOsmNode.DIVIDER,
+                    storage.getNodeLatByPosition(p) * IOsmNode.DIVIDER);
         }
         return GeometryHelper.createLine(points);
     }
@@ -273,10 +273,8 @@ public class ExtendedRelation implements IExtendedObject {
     }
 
     protected Boolean iterateWay(NodesIterator iterator, IOsmWay way) {
-        for (int i = 0; i < way.getNodeIds().length; i++) {
-            long nid = way.getNodeIds()[i];
-
-            IOsmNode n = storage.getNodeById(nid);
+        for (int i = 0; i < way.getNodesCount(); i++) {
+            IOsmNode n = storage.getNodeByPosition(ExtendedWay.nodePosition(storage, way, i));
             Boolean r = iterator.processNode(n);
             if (r != null) {
                 return r;
@@ -23,6 +23,7 @@ import org.alex73.osmemory.IOsmNode;
 import org.alex73.osmemory.IOsmObject;
 import org.alex73.osmemory.IOsmWay;
 import org.alex73.osmemory.MemoryStorage;
+import org.alex73.osmemory.OsmWay;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
@@ -64,8 +65,8 @@ public class ExtendedWay implements IExtendedObject {
     }
 
     public boolean isClosed() {
-        long[] nids = way.getNodeIds();
-        return nids.length >= 3 && nids[0] == nids[nids.length - 1];
+        int count = way.getNodesCount();
+        return count >= 3 && way.getNodeId(0) == way.getNodeId(count - 1);
     }
 
     public synchronized LineString getLine() throws Exception {
@@ -116,39 +117,56 @@ public class ExtendedWay implements IExtendedObject {
     }
 
     protected synchronized void checkProcessed() {
-        if (boundingBox != null) {
-            return; // already loaded
-        }
         checkNodes();
-        boundingBox = new BoundingBox();
-        points = new Coordinate[nodes.length];
-        for (int i = 0; i < nodes.length; i++) {
-            IOsmNode n = nodes[i];
-            if (n != null) {
-                boundingBox.expandToInclude(n.getLat(), n.getLon());
-                points[i] = GeometryHelper.coord(n.getLongitude(), n.getLatitude());
-            }
-        }
     }
 
+    /**
+     * Coordinates are copied on the first call, so they are still valid after storage update.
+     */
     protected synchronized void checkNodes() {
-        if (nodes != null) {
+        if (points != null) {
             return; // already filled
         }
         allPointsDefined = true;
-        nodes = new IOsmNode[way.getNodeIds().length];
-        for (int i = 0; i < way.getNodeIds().length; i++) {
-            long nid = way.getNodeIds()[i];
-            nodes[i] = storage.getNodeById(nid);
-            if (nodes[i] == null) {
+        boundingBox = new BoundingBox();
+        Coordinate[] ps = new Coordinate[way.getNodesCount()];
+        for (int i = 0; i < ps.length; i++) {
+            int p = nodePosition(storage, way, i);
+            if (p == MemoryStorage.NODE_POSITION_MISSING) {
                 allPointsDefined = false;
+            } else {
+                int lat = storage.getNodeLatByPosition(p);
+                int lon = storage.getNodeLonByPosition(p);
+                boundingBox.expandToInclude(lat, lon);
+                ps[i] = GeometryHelper.coord(lon * IOsmNode.DIVIDER, lat * IOsmNode.DIVIDER);
+            }
+        }
+        points = ps;
+    }
+
+    protected synchronized IOsmNode[] getNodes() {
+        if (nodes == null) {
+            IOsmNode[] ns = new IOsmNode[way.getNodesCount()];
+            for (int i = 0; i < ns.length; i++) {
+                ns[i] = storage.getNodeByPosition(nodePosition(storage, way, i));
             }
+            nodes = ns;
         }
+        return nodes;
+    }
+
+    /**
+     * Get position of way node in storage, by positions resolved in storage if possible.
+     */
+    static int nodePosition(MemoryStorage storage, IOsmWay way, int index) {
+        if (way instanceof OsmWay) {
+            return ((OsmWay) way).getNodePosition(storage, index);
+        }
+        return storage.getNodePosition(way.getNodeId(index));
     }
 
     public Boolean iterateNodes(NodesIterator iterator) {
-        checkNodes();
-        for (IOsmNode n : nodes) {
+        for (IOsmNode n : getNodes()) {
             if (n != null) {
                 Boolean r = iterator.processNode(n);
                 if (r != null) {
@@ -149,7 +149,14 @@ public class FastArea extends Fast {
     }
 
     protected boolean coversNode(IOsmNode node) {
-        Cell c = getCellForPoint(node.getLat(), node.getLon());
+        return coversPoint(node.getLat(), node.getLon());
+    }
+
+    /**
+     * Check point without node object. It can be used with NodeCursor for check many nodes.
+     */
+    public boolean coversPoint(int lat, int lon) {
+        Cell c = getCellForPoint(lat, lon);
         if (c == null) {
             return false;
         }
@@ -158,12 +165,16 @@ public class FastArea extends Fast {
         } else if (c.isFull()) {
             return true;
         } else {
-            return coversCellNode(c, node);
+            return coversCellPoint(c, lat, lon);
         }
     }
 
     protected boolean coversCellNode(Cell c, IOsmNode node) {
-        Point p = GeometryHelper.createPoint(node.getLongitude(), node.getLatitude());
+        return coversCellPoint(c, node.getLat(), node.getLon());
+    }
+
+    protected boolean coversCellPoint(Cell c, int lat, int lon) {
+        Point p = GeometryHelper.createPoint(lon * IOsmNode.DIVIDER, lat * IOsmNode.DIVIDER);
         if (c.getGeom() instanceof GeometryCollection) {
             // cached can be collection of point and polygon, but covers doesn't work with collection
             GeometryCollection cachedCollection = (GeometryCollection) c.getGeom();